@@ -0,0 +1,108 @@
+package com.leonidov.rest.benchmark;
+
+import com.leonidov.rest.model.User;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * H2 с теми же миграциями, что и у приложения, и детерминированным набором данных:
+ * при одинаковых rows и {@link #SEED} содержимое таблицы совпадает от запуска к запуску.
+ * По умолчанию база in-memory; файловая ({@link #onDisk}) нужна там, где важны коммит и кэш страниц.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    static final long SEED = 20230501L;
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final int SAMPLE_SIZE = 1024;
+
+    private final HikariDataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final List<User> sample = new ArrayList<>(SAMPLE_SIZE);
+
+    BenchmarkDatabase(String name, int rows) {
+        this(inMemory(name), rows);
+    }
+
+    BenchmarkDatabase(HikariConfig config, int rows) {
+        this.dataSource = new HikariDataSource(config);
+
+        Flyway.configure()
+                .dataSource(this.dataSource)
+                .locations("classpath:db/migration")
+                .load()
+                .migrate();
+
+        this.jdbcTemplate = new JdbcTemplate(this.dataSource);
+        seed(rows);
+    }
+
+    static HikariConfig inMemory(String name) {
+        return config("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+    }
+
+    /**
+     * Файловая база в target/jmh-db; settings дописываются к URL как есть, например {@code ";WRITE_DELAY=0"}.
+     */
+    static HikariConfig onDisk(String name, String settings) {
+        return config("jdbc:h2:file:./target/jmh-db/" + name + settings);
+    }
+
+    private static HikariConfig config(String jdbcUrl) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(jdbcUrl);
+        config.setUsername("sa");
+        config.setPassword("");
+        return config;
+    }
+
+    private void seed(int rows) {
+        Random random = new Random(SEED);
+        int sampleStep = Math.max(1, rows / SAMPLE_SIZE);
+        List<Object[]> batch = new ArrayList<>(SEED_BATCH_SIZE);
+
+        for (int i = 0; i < rows; i++) {
+            User user = new User(new UUID(random.nextLong(), random.nextLong()),
+                    "name" + random.nextInt(100_000), "surname" + random.nextInt(100_000),
+                    "user" + i, "password" + random.nextInt(100_000));
+            if (i % sampleStep == 0 && this.sample.size() < SAMPLE_SIZE)
+                this.sample.add(user);
+
+            batch.add(new Object[]{user.id(), user.name(), user.surname(), user.username(), user.passwordHash()});
+            if (batch.size() == SEED_BATCH_SIZE || i == rows - 1) {
+                this.jdbcTemplate.batchUpdate(
+                        "INSERT INTO t_users(id, c_name, c_surname, c_username, c_password) VALUES (?, ?, ?, ?, ?)",
+                        batch);
+                batch.clear();
+            }
+        }
+    }
+
+    DataSource dataSource() {
+        return this.dataSource;
+    }
+
+    JdbcTemplate jdbcTemplate() {
+        return this.jdbcTemplate;
+    }
+
+    /**
+     * Равномерная выборка существующих пользователей для точечных запросов.
+     */
+    List<User> sample() {
+        return this.sample;
+    }
+
+    @Override
+    public void close() {
+        this.jdbcTemplate.execute("DROP ALL OBJECTS");
+        this.dataSource.close();
+    }
+}
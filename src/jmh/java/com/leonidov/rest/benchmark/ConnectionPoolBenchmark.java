@@ -0,0 +1,103 @@
+package com.leonidov.rest.benchmark;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.util.PropertyElf;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Смешанная нагрузка на файловую базу: 24 потока читают случайных пользователей по username, 8 потоков добавляют новых.
+ * profile=default - настройки Hikari и H2 по умолчанию, profile=prod - пул и параметры URL
+ * из application-prod.properties, так что меряется ровно то, что поставляется.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+
+    private static final String HIKARI_PREFIX = "spring.datasource.hikari.";
+
+    @Param({"default", "prod"})
+    String profile;
+
+    @Param({"300000"})
+    int rows;
+
+    BenchmarkDatabase database;
+    JdbcOperationsUserRepositoryImpl repository;
+    final AtomicLong counter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HikariConfig config = "prod".equals(this.profile) ? prodConfig() : BenchmarkDatabase.onDisk(name(), "");
+        this.database = new BenchmarkDatabase(config, this.rows);
+        this.repository = new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(),
+                new SimpleMeterRegistry());
+    }
+
+    private HikariConfig prodConfig() throws IOException {
+        Properties prod = PropertiesLoaderUtils.loadProperties(new ClassPathResource("application-prod.properties"));
+        String url = prod.getProperty("spring.datasource.url");
+        HikariConfig config = BenchmarkDatabase.onDisk(name(), url.substring(url.indexOf(';')));
+
+        // spring.datasource.hikari.maximum-pool-size -> maximumPoolSize
+        Properties hikari = new Properties();
+        for (String key : prod.stringPropertyNames()) {
+            if (key.startsWith(HIKARI_PREFIX))
+                hikari.setProperty(camelCase(key.substring(HIKARI_PREFIX.length())), prod.getProperty(key));
+        }
+        PropertyElf.setTargetFromProperties(config, hikari);
+        return config;
+    }
+
+    private static String camelCase(String kebab) {
+        StringBuilder camel = new StringBuilder(kebab.length());
+        for (int i = 0; i < kebab.length(); i++) {
+            char c = kebab.charAt(i);
+            if (c == '-' && i + 1 < kebab.length())
+                camel.append(Character.toUpperCase(kebab.charAt(++i)));
+            else
+                camel.append(c);
+        }
+        return camel.toString();
+    }
+
+    private String name() {
+        return "users_pool_" + this.profile + "_" + this.rows;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.database.close();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(24)
+    public Optional<User> findByUsername() {
+        // username у сгенерированных строк - "user" + номер, так чтение разбросано по всей таблице
+        return this.repository.findByUsername("user" + ThreadLocalRandom.current().nextInt(this.rows));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(8)
+    public void upsert() {
+        long n = this.counter.incrementAndGet();
+        this.repository.upsert(new User("name" + n, "surname" + n, "pool" + n, "password" + n));
+    }
+}
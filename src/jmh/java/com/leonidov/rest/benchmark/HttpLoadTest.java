@@ -0,0 +1,104 @@
+package com.leonidov.rest.benchmark;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Нагрузочный клиент с замкнутым циклом: каждый из clients виртуальных клиентов шлёт следующий
+ * запрос сразу после ответа на предыдущий. Клиенты не занимают по потоку, поэтому тысячи
+ * одновременных соединений создаются с одной машины.
+ * <p>
+ * Аргументы: url [clients=1000] [seconds=30] [warmupSeconds=10].
+ * Печатает пропускную способность, число ошибок и перцентили задержки.
+ */
+public final class HttpLoadTest {
+
+    private final HttpClient client;
+    private final ExecutorService callbacks;
+    private final HttpRequest request;
+    private final Histogram latencies = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(1), 3);
+    private final AtomicLong errors = new AtomicLong();
+    private volatile boolean recording;
+
+    private HttpLoadTest(URI uri) {
+        this.callbacks = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(this.callbacks)
+                .build();
+        this.request = HttpRequest.newBuilder(uri).GET().build();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        URI uri = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/api/users?limit=20");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 30);
+        Duration warmup = Duration.ofSeconds(args.length > 3 ? Long.parseLong(args[3]) : 10);
+
+        HttpLoadTest loadTest = new HttpLoadTest(uri);
+        loadTest.run(clients, warmup, false);
+        loadTest.run(clients, duration, true).print(uri, clients, duration);
+        loadTest.callbacks.shutdownNow();
+    }
+
+    private HttpLoadTest run(int clients, Duration duration, boolean record) throws InterruptedException {
+        this.latencies.reset();
+        this.errors.set(0);
+        this.recording = record;
+
+        long deadline = System.nanoTime() + duration.toNanos();
+        CountDownLatch finished = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++)
+            next(deadline, finished);
+
+        finished.await();
+        return this;
+    }
+
+    private void next(long deadline, CountDownLatch finished) {
+        if (System.nanoTime() >= deadline) {
+            finished.countDown();
+            return;
+        }
+
+        long start = System.nanoTime();
+        this.client.sendAsync(this.request, HttpResponse.BodyHandlers.discarding())
+                .whenCompleteAsync((response, error) -> {
+                    if (this.recording) {
+                        this.latencies.recordValue(Math.min(System.nanoTime() - start,
+                                this.latencies.getHighestTrackableValue()));
+                        if (error != null || response.statusCode() >= 400)
+                            this.errors.incrementAndGet();
+                    }
+                    next(deadline, finished);
+                }, this.callbacks);
+    }
+
+    private void print(URI uri, int clients, Duration duration) {
+        long requests = this.latencies.getTotalCount();
+        System.out.printf("url=%s clients=%d duration=%ds%n", uri, clients, duration.toSeconds());
+        System.out.printf("requests=%d errors=%d throughput=%.1f req/s%n",
+                requests, this.errors.get(), requests / (double) duration.toSeconds());
+        System.out.printf("latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                millis(this.latencies.getValueAtPercentile(50)),
+                millis(this.latencies.getValueAtPercentile(90)),
+                millis(this.latencies.getValueAtPercentile(99)),
+                millis(this.latencies.getValueAtPercentile(99.9)),
+                millis(this.latencies.getMaxValue()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
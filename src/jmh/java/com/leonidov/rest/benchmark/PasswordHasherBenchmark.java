@@ -0,0 +1,53 @@
+package com.leonidov.rest.benchmark;
+
+import com.leonidov.rest.service.PasswordHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Пропускная способность регистраций в зависимости от стоимости bcrypt:
+ * {@code hash} — одиночная регистрация, {@code hashAll} — пачка из массового импорта.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    @Param({"8", "10", "12"})
+    int strength;
+
+    PasswordHasher passwordHasher;
+    List<String> passwords;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.passwordHasher = new PasswordHasher(new BCryptPasswordEncoder(this.strength),
+                new SimpleMeterRegistry(), 0, 1024);
+        this.passwords = IntStream.range(0, 64).mapToObj(i -> "password" + i).toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.passwordHasher.destroy();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String hash() {
+        return this.passwordHasher.hash("password");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(64)
+    public List<String> hashAll() {
+        return this.passwordHasher.hashAll(this.passwords);
+    }
+}
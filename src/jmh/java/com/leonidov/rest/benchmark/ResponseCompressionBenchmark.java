@@ -0,0 +1,89 @@
+package com.leonidov.rest.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leonidov.rest.controller.PageFormat;
+import com.leonidov.rest.controller.PageFormatFactories;
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Цена gzip для страницы GET /api/users из 1000 пользователей: сжатие на сервере и распаковка у клиента
+ * по уровням. Tomcat и кэш страниц сжимают с уровнем по умолчанию (6).
+ * Размеры тел печатаются при подготовке.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseCompressionBenchmark {
+
+    static final int PAGE_SIZE = 1000;
+
+    @Param({"1", "6", "9"})
+    int level;
+
+    @Param({"JSON", "SMILE"})
+    PageFormat format;
+
+    byte[] page;
+    byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkDatabase database = new BenchmarkDatabase("users_response_compression", PAGE_SIZE);
+        try (ByteArrayBuilder body = new ByteArrayBuilder()) {
+            try (JsonGenerator generator = new PageFormatFactories(new ObjectMapper(),
+                    new MappingJackson2CborHttpMessageConverter(), new MappingJackson2SmileHttpMessageConverter())
+                    .factory(this.format).createGenerator(body)) {
+                generator.writeStartArray();
+                new JdbcOperationsUserRepositoryImpl(database.jdbcTemplate(), new SimpleMeterRegistry())
+                        .writePage(null, PAGE_SIZE, null, generator);
+                generator.writeEndArray();
+            }
+            this.page = body.toByteArray();
+        } finally {
+            database.close();
+        }
+        this.compressed = compress();
+        System.out.printf("%n%s page: %d bytes, gzip level %d: %d bytes%n",
+                this.format, this.page.length, this.level, this.compressed.length);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        ByteArrayBuilder compressed = new ByteArrayBuilder(this.page.length / 4);
+        try (GZIPOutputStream out = new LeveledGzipOutputStream(compressed, this.level)) {
+            out.write(this.page);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] decompress() throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(this.compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        LeveledGzipOutputStream(ByteArrayBuilder out, int level) throws IOException {
+            super(out);
+            this.def.setLevel(level == 6 ? Deflater.DEFAULT_COMPRESSION : level);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.leonidov.rest.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leonidov.rest.controller.PageFormat;
+import com.leonidov.rest.controller.PageFormatFactories;
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Страница из 1000 пользователей в JSON, CBOR и Smile: запись сервером из ResultSet
+ * и разбор клиентом в {@link User}. Размеры тел печатаются при подготовке.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserBinaryFormatsBenchmark {
+
+    static final int PAGE_SIZE = 1000;
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    PageFormat format;
+
+    BenchmarkDatabase database;
+    JdbcOperationsUserRepositoryImpl repository;
+    JsonFactory factory;
+    ObjectMapper clientMapper;
+    byte[] page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.database = new BenchmarkDatabase("users_binary_formats", PAGE_SIZE);
+        this.repository = new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(), new SimpleMeterRegistry());
+        // фабрики как у приложения: от мапперов конвертеров, собранных Jackson2ObjectMapperBuilder
+        this.factory = new PageFormatFactories(new ObjectMapper(), new MappingJackson2CborHttpMessageConverter(),
+                new MappingJackson2SmileHttpMessageConverter()).factory(this.format);
+        // копия: маппер привязывает фабрику к себе, а фабрика формата общая
+        this.clientMapper = new ObjectMapper(this.factory.copy());
+        this.page = writePage();
+        System.out.printf("%n%s page of %d users: %d bytes, %d bytes deflated%n",
+                this.format, PAGE_SIZE, this.page.length, deflatedSize(this.page));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.database.close();
+    }
+
+    @Benchmark
+    public byte[] writePage() throws IOException {
+        // как SerializedPage
+        try (ByteArrayBuilder body = new ByteArrayBuilder()) {
+            try (JsonGenerator generator = this.factory.createGenerator(body)) {
+                generator.writeStartArray();
+                this.repository.writePage(null, PAGE_SIZE, null, generator);
+                generator.writeEndArray();
+            }
+            return body.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public User[] readPage() throws IOException {
+        return this.clientMapper.readValue(this.page, User[].class);
+    }
+
+    private static int deflatedSize(byte[] body) throws IOException {
+        ByteArrayBuilder compressed = new ByteArrayBuilder();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION))) {
+            out.write(body);
+        }
+        return compressed.size();
+    }
+}
@@ -0,0 +1,92 @@
+package com.leonidov.rest.benchmark;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserIdGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Вставка в растущую файловую таблицу пачками по {@link #BATCH_SIZE} с id UUIDv4 и UUIDv7.
+ * За прогон в таблицу попадают миллионы строк, поэтому поздние итерации показывают, во что обходятся
+ * вставки в случайные страницы индекса, когда он перестаёт помещаться в кэш H2; в конце печатается
+ * размер файла базы. {@code nextId} — стоимость самого генератора.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 6, time = 10)
+@Fork(1)
+public class UserIdBenchmark {
+
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"random", "time-ordered"})
+    String generator;
+
+    UserIdGenerator userIdGenerator;
+    BenchmarkDatabase database;
+    JdbcOperationsUserRepositoryImpl repository;
+    TransactionTemplate transactionTemplate;
+    long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // размер файла сравниваем с нуля, без места, оставшегося от прошлых прогонов
+        Files.deleteIfExists(databaseFile());
+        this.userIdGenerator = "random".equals(this.generator)
+                ? UserIdGenerator.random()
+                : UserIdGenerator.timeOrdered();
+        this.database = new BenchmarkDatabase(BenchmarkDatabase.onDisk("users_ids_" + this.generator, ""), 0);
+        this.repository = new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(),
+                new SimpleMeterRegistry());
+        this.transactionTemplate = new TransactionTemplate(
+                new DataSourceTransactionManager(this.database.dataSource()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        this.database.jdbcTemplate().execute("CHECKPOINT SYNC");
+        Long rows = this.database.jdbcTemplate().queryForObject("SELECT COUNT(*) FROM t_users", Long.class);
+        long bytes = Files.size(databaseFile());
+        if (rows > 0)
+            // латиницей: консоль форкнутой JVM не всегда в UTF-8
+            System.out.printf("%n%s: %d rows, database file %d MB, %d bytes/row%n",
+                    this.generator, rows, bytes >> 20, bytes / rows);
+        this.database.close();
+    }
+
+    private Path databaseFile() {
+        return Path.of("target/jmh-db/users_ids_" + this.generator + ".mv.db");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void insert() {
+        List<User> users = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            long n = this.counter++;
+            users.add(new User(this.userIdGenerator.nextId(), "name" + n, "surname" + n, "bench" + n, "password" + n));
+        }
+        this.transactionTemplate.executeWithoutResult(status -> this.repository.saveAll(users));
+    }
+
+    @Benchmark
+    @Threads(4)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public UUID nextId() {
+        return this.userIdGenerator.nextId();
+    }
+}
@@ -0,0 +1,50 @@
+package com.leonidov.rest.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leonidov.rest.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserJsonBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    int rows;
+
+    ObjectMapper objectMapper;
+    List<User> users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.objectMapper = new ObjectMapper();
+        Random random = new Random(BenchmarkDatabase.SEED);
+        this.users = new ArrayList<>(this.rows);
+        for (int i = 0; i < this.rows; i++) {
+            this.users.add(new User(new UUID(random.nextLong(), random.nextLong()),
+                    "name" + random.nextInt(100_000), "surname" + random.nextInt(100_000),
+                    "user" + i, "password" + random.nextInt(100_000)));
+        }
+    }
+
+    @Benchmark
+    public void writeList() throws IOException {
+        this.objectMapper.writeValue(OutputStream.nullOutputStream(), this.users);
+    }
+
+    @Benchmark
+    public byte[] writeListAsBytes() throws IOException {
+        return this.objectMapper.writeValueAsBytes(this.users);
+    }
+}
@@ -0,0 +1,96 @@
+package com.leonidov.rest.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON из базы: через {@link User} и Jackson против записи прямо из ResultSet
+ * ({@code writePage}, {@code writeNdjson}). Аллокации смотреть с {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserJsonStreamingBenchmark {
+
+    static final int PAGE_SIZE = 1000;
+
+    @Param({"100000"})
+    int rows;
+
+    BenchmarkDatabase database;
+    JdbcOperationsUserRepositoryImpl repository;
+    ObjectMapper objectMapper;
+    ObjectWriter ndjsonWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.database = new BenchmarkDatabase("users_json_streaming", this.rows);
+        this.repository = new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(), new SimpleMeterRegistry());
+        this.objectMapper = new ObjectMapper();
+        // так экспорт писался до записи из ResultSet
+        this.ndjsonWriter = this.objectMapper.writerFor(User.class)
+                .withRootValueSeparator("")
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.database.close();
+    }
+
+    @Benchmark
+    public byte[] pageViaObjects() throws IOException {
+        List<User> page = this.repository.findPage(null, PAGE_SIZE);
+        return this.objectMapper.writeValueAsBytes(page);
+    }
+
+    @Benchmark
+    public byte[] pageFromResultSet() throws IOException {
+        // как SerializedPage
+        try (ByteArrayBuilder json = new ByteArrayBuilder()) {
+            try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(json)) {
+                generator.writeStartArray();
+                this.repository.writePage(null, PAGE_SIZE, null, generator);
+                generator.writeEndArray();
+            }
+            return json.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public void exportViaObjects() throws IOException {
+        try (JsonGenerator generator = this.ndjsonWriter.createGenerator(OutputStream.nullOutputStream())) {
+            this.repository.streamAll(user -> {
+                try {
+                    this.ndjsonWriter.writeValue(generator, user);
+                    generator.writeRaw('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void exportFromResultSet() throws IOException {
+        try (JsonGenerator generator = this.objectMapper.createGenerator(OutputStream.nullOutputStream())) {
+            this.repository.writeNdjson(null, generator);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.leonidov.rest.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leonidov.rest.controller.PageFormat;
+import com.leonidov.rest.controller.PageFormatFactories;
+import com.leonidov.rest.controller.UserListResponseCache;
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserPage;
+import com.leonidov.rest.service.UserCache;
+import com.leonidov.rest.service.UserEventLog;
+import com.leonidov.rest.service.UserServiceImpl;
+import com.leonidov.rest.service.UserWriteBatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Первая страница GET /api/users: версия списка, чтение страницы и сериализация против готовых байтов
+ * {@link UserListResponseCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserListResponseCacheBenchmark {
+
+    @Param({"100000"})
+    int rows;
+
+    @Param({"100", "1000"})
+    int limit;
+
+    BenchmarkDatabase database;
+    UserEventLog userEventLog;
+    UserServiceImpl userService;
+    UserListResponseCache cache;
+    ObjectMapper objectMapper;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.database = new BenchmarkDatabase("users_list_cache", this.rows);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        this.userEventLog = new UserEventLog(meterRegistry, 1024, 1, Duration.ofMinutes(1), Duration.ofMinutes(1));
+        this.userService = new UserServiceImpl(
+                new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(), meterRegistry),
+                new UserCache(new ConcurrentMapCacheManager("users-by-id", "users-by-username")),
+                new StaticListableBeanFactory().getBeanProvider(UserWriteBatcher.class),
+                this.userEventLog);
+        this.objectMapper = new ObjectMapper();
+        this.cache = new UserListResponseCache(this.userService, this.userEventLog,
+                new PageFormatFactories(this.objectMapper, new MappingJackson2CborHttpMessageConverter(),
+                        new MappingJackson2SmileHttpMessageConverter()),
+                meterRegistry, 16, Duration.ofSeconds(2), true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.cache.destroy();
+        this.userEventLog.destroy();
+        this.database.close();
+    }
+
+    @Benchmark
+    public byte[] uncached(Blackhole blackhole) throws IOException {
+        blackhole.consume(this.userService.findCollectionVersion());
+        UserPage<User> page = this.userService.findPage(null, this.limit);
+        return this.objectMapper.writeValueAsBytes(page.users());
+    }
+
+    @Benchmark
+    public byte[] cached() {
+        return this.cache.get(null, this.limit, null, PageFormat.JSON).body();
+    }
+}
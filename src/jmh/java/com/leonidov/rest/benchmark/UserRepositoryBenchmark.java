@@ -0,0 +1,137 @@
+package com.leonidov.rest.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserSearchHit;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserRepositoryBenchmark {
+
+    static final int PAGE_SIZE = 1000;
+    static final List<UserField> ID_AND_USERNAME = List.of(UserField.ID, UserField.USERNAME);
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Param({"10000", "100000", "1000000"})
+    int rows;
+
+    BenchmarkDatabase database;
+    JdbcOperationsUserRepositoryImpl repository;
+    List<User> sample;
+    int next;
+
+    final List<UUID> inserted = new ArrayList<>();
+    long insertCounter;
+
+    Connection mapRowConnection;
+    PreparedStatement mapRowStatement;
+    ResultSet mapRowResultSet;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        this.database = new BenchmarkDatabase("users_" + this.rows, this.rows);
+        this.repository = new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(),
+                new SimpleMeterRegistry());
+        this.sample = this.database.sample();
+
+        // mapRow меряется на реальном ResultSet H2, стоящем на одной строке
+        this.mapRowConnection = this.database.jdbcTemplate().getDataSource().getConnection();
+        this.mapRowStatement = this.mapRowConnection.prepareStatement(
+                "SELECT id, c_name, c_surname, c_username, c_password, c_version FROM t_users WHERE id = ?");
+        this.mapRowStatement.setObject(1, this.sample.get(0).id());
+        this.mapRowResultSet = this.mapRowStatement.executeQuery();
+        this.mapRowResultSet.next();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteInserted() {
+        this.inserted.forEach(this.repository::deleteById);
+        this.inserted.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.mapRowResultSet.close();
+        this.mapRowStatement.close();
+        this.mapRowConnection.close();
+        this.database.close();
+    }
+
+    private User nextSample() {
+        User user = this.sample.get(this.next);
+        this.next = (this.next + 1) % this.sample.size();
+        return user;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public User mapRow() throws SQLException {
+        return this.repository.mapRow(this.mapRowResultSet, 1);
+    }
+
+    @Benchmark
+    public Optional<User> findById() {
+        return this.repository.findById(nextSample().id());
+    }
+
+    @Benchmark
+    public Optional<User> findByUsername() {
+        return this.repository.findByUsername(nextSample().username());
+    }
+
+    @Benchmark
+    public List<UserSearchHit> searchByPrefix() {
+        String name = nextSample().name();
+        return this.repository.searchByPrefix(name.substring(0, Math.min(name.length(), 7)), null, 21);
+    }
+
+    @Benchmark
+    public void save() {
+        User user = new User("name", "surname", "bench" + this.insertCounter++, "password1");
+        this.repository.save(user);
+        this.inserted.add(user.id());
+    }
+
+    @Benchmark
+    public List<User> findPage() {
+        return this.repository.findPage(null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public UUID writePageIdAndUsername() throws IOException {
+        // узкие страницы пишутся только из ResultSet; полная страница так же — в UserJsonStreamingBenchmark
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            UUID nextCursor = this.repository.writePage(null, PAGE_SIZE, ID_AND_USERNAME, generator);
+            generator.writeEndArray();
+            return nextCursor;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<User> findAll() {
+        return this.repository.findAll();
+    }
+}
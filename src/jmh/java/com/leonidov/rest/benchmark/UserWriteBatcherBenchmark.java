@@ -0,0 +1,68 @@
+package com.leonidov.rest.benchmark;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepositoryImpl;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.service.UserWriteBatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пропускная способность одиночных регистраций из многих потоков: каждый upsert со своим коммитом
+ * против пачек {@link UserWriteBatcher}. База файловая и пишет на диск каждый коммит (WRITE_DELAY=0), как у сервера БД с синхронным журналом.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class UserWriteBatcherBenchmark {
+
+    @Param({"false", "true"})
+    boolean batching;
+
+    @Param({"0", "2"})
+    int maxDelayMillis;
+
+    BenchmarkDatabase database;
+    JdbcOperationsUserRepositoryImpl repository;
+    UserWriteBatcher batcher;
+    final AtomicLong counter = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.database = new BenchmarkDatabase(BenchmarkDatabase.onDisk(
+                "users_write_" + this.batching + "_" + this.maxDelayMillis, ";WRITE_DELAY=0"), 10_000);
+        this.repository = new JdbcOperationsUserRepositoryImpl(this.database.jdbcTemplate(),
+                new SimpleMeterRegistry());
+        if (this.batching)
+            this.batcher = new UserWriteBatcher(this.repository,
+                    new TransactionTemplate(new DataSourceTransactionManager(this.database.dataSource())),
+                    new SimpleMeterRegistry(), 256, Duration.ofMillis(this.maxDelayMillis), 4096,
+                    Duration.ofSeconds(30));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        if (this.batcher != null)
+            this.batcher.destroy();
+        this.database.close();
+    }
+
+    @Benchmark
+    public void upsert() {
+        long n = this.counter.incrementAndGet();
+        User user = new User("name" + n, "surname" + n, "bench" + n, "password" + n);
+        if (this.batcher != null)
+            this.batcher.upsert(user, () -> { });
+        else
+            this.repository.upsert(user);
+    }
+}
@@ -0,0 +1,29 @@
+package com.leonidov.rest.config;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcOperations;
+
+/**
+ * Встроенный полнотекстовый индекс H2 по имени, фамилии и username. Он поддерживается триггерами
+ * на t_users и удорожает каждую запись, поэтому включается только свойством users.search.fulltext.enabled.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "users.search.fulltext.enabled", havingValue = "true")
+public class FullTextSearchConfig {
+
+    @Bean
+    InitializingBean fullTextIndexInitializer(JdbcOperations jdbcOperations) {
+        return () -> {
+            jdbcOperations.execute("CREATE ALIAS IF NOT EXISTS FT_INIT FOR 'org.h2.fulltext.FullText.init'");
+            jdbcOperations.execute("CALL FT_INIT()");
+            Integer indexes = jdbcOperations.queryForObject(
+                    "SELECT COUNT(*) FROM FT.INDEXES WHERE \"SCHEMA\" = 'PUBLIC' AND \"TABLE\" = 'T_USERS'",
+                    Integer.class);
+            if (indexes == null || indexes == 0)
+                jdbcOperations.execute("CALL FT_CREATE_INDEX('PUBLIC', 'T_USERS', 'C_NAME,C_SURNAME,C_USERNAME')");
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package com.leonidov.rest.config;
+
+import com.leonidov.rest.controller.ReadYourWritesFilter;
+import com.leonidov.rest.data.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Чтение с реплик включается списком users.datasource.replicas.urls. Основной пул по-прежнему настраивается
+ * spring.datasource.*, пулы реплик получают тот же размер, режим read-only и метрики hikaricp
+ * с именем {@code <pool>-replica-<n>}. Схему на репликах поддерживает репликация, Flyway мигрирует только основную базу.
+ */
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "users.datasource.replicas.urls")
+public class ReplicaRoutingConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    ReplicaRoutingDataSource dataSource(HikariDataSource primaryDataSource,
+                                        MeterRegistry meterRegistry,
+                                        @Value("${users.datasource.replicas.urls}") String[] urls,
+                                        @Value("${users.datasource.replicas.username:${spring.datasource.username:sa}}") String username,
+                                        @Value("${users.datasource.replicas.password:${spring.datasource.password:}}") String password,
+                                        @Value("${users.datasource.replicas.health-check-interval:5s}") Duration healthCheckInterval) {
+        List<HikariDataSource> replicas = new ArrayList<>(urls.length);
+        for (int i = 0; i < urls.length; i++) {
+            HikariDataSource replica = new HikariDataSource();
+            replica.setPoolName(primaryDataSource.getPoolName() + "-replica-" + i);
+            replica.setJdbcUrl(urls[i].trim());
+            replica.setUsername(username);
+            replica.setPassword(password);
+            // до старта пула Hikari хранит -1 вместо размера по умолчанию
+            if (primaryDataSource.getMaximumPoolSize() > 0)
+                replica.setMaximumPoolSize(primaryDataSource.getMaximumPoolSize());
+            replica.setConnectionTimeout(primaryDataSource.getConnectionTimeout());
+            replica.setReadOnly(true);
+            replica.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicas.add(replica);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, healthCheckInterval, meterRegistry);
+    }
+
+    @Bean
+    ReadYourWritesFilter readYourWritesFilter(
+            @Value("${users.datasource.replicas.read-your-writes:5s}") Duration stickiness) {
+        return new ReadYourWritesFilter(stickiness);
+    }
+}
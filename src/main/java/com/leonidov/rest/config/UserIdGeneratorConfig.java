@@ -0,0 +1,22 @@
+package com.leonidov.rest.config;
+
+import com.leonidov.rest.model.UserIdGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration(proxyBeanMethods = false)
+public class UserIdGeneratorConfig {
+
+    /**
+     * @param kind time-ordered — UUIDv7 (по умолчанию), random — UUIDv4
+     */
+    @Bean
+    UserIdGenerator userIdGenerator(@Value("${users.id-generator:time-ordered}") String kind) {
+        return switch (kind) {
+            case "time-ordered" -> UserIdGenerator.timeOrdered();
+            case "random" -> UserIdGenerator.random();
+            default -> throw new IllegalArgumentException("Неизвестный users.id-generator: " + kind);
+        };
+    }
+}
@@ -0,0 +1,110 @@
+package com.leonidov.rest.controller;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * ETag вида {@code "<версия>"} и {@code W/"<версия>"}, разбор заголовков If-None-Match / If-Match.
+ * У представлений в CBOR и Smile к версии добавлен формат ({@code "<версия>-cbor"}): байты у них другие,
+ * и 304 на тег JSON-представления для них был бы ошибкой.
+ */
+final class EntityTags {
+
+    private static final String ANY = "*";
+    private static final String WEAK_PREFIX = "W/";
+
+    private EntityTags() {
+    }
+
+    static String of(Object version) {
+        return "\"" + version + "\"";
+    }
+
+    static String of(Object version, PageFormat format) {
+        return format == PageFormat.JSON ? of(version) : of(version + suffix(format));
+    }
+
+    /**
+     * Слабый тег для ответов, которые сервер может сжать: Tomcat не сжимает ответ с сильным ETag,
+     * ведь сжатые байты — уже другое представление. Для If-None-Match этого достаточно.
+     */
+    static String weak(Object version) {
+        return WEAK_PREFIX + of(version);
+    }
+
+    static String weak(Object version, PageFormat format) {
+        return WEAK_PREFIX + of(version, format);
+    }
+
+    private static String suffix(PageFormat format) {
+        return "-" + format.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * If-None-Match сравнивает теги слабо: префикс W/ не учитывается.
+     */
+    static boolean noneMatchHits(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null)
+            return false;
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals(ANY) || opaque(etag).equals(opaque(tag)))
+                return true;
+        }
+        return false;
+    }
+
+    private static String opaque(String tag) {
+        return tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+    }
+
+    /**
+     * {@code If-Match: *} — «любая текущая версия»: если ресурса нет, условие не выполнено (412), а не 400/404.
+     */
+    static boolean matchesAny(String ifMatch) {
+        if (ifMatch == null)
+            return false;
+
+        for (String tag : ifMatch.split(",")) {
+            if (tag.trim().equals(ANY))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Версии из If-Match. Сравнение сильное, поэтому слабые и нечисловые теги ничему не соответствуют.
+     * Тег любого формата означает ту же версию пользователя: условие записи касается ресурса, а не представления.
+     *
+     * @return {@code null}, если условия нет (заголовка нет или он равен *)
+     */
+    static Set<Long> ifMatchVersions(String ifMatch) {
+        if (ifMatch == null)
+            return null;
+
+        Set<Long> versions = new HashSet<>();
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals(ANY))
+                return null;
+            if (tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+                try {
+                    versions.add(Long.parseLong(withoutFormat(tag.substring(1, tag.length() - 1))));
+                } catch (NumberFormatException ignored) {
+                    // чужой тег, с версией не совпадёт
+                }
+            }
+        }
+        return versions;
+    }
+
+    private static String withoutFormat(String version) {
+        for (PageFormat format : PageFormat.values()) {
+            if (format != PageFormat.JSON && version.endsWith(suffix(format)))
+                return version.substring(0, version.length() - suffix(format).length());
+        }
+        return version;
+    }
+}
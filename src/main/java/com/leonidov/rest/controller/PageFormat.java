@@ -0,0 +1,58 @@
+package com.leonidov.rest.controller;
+
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Форматы страницы GET /api/users. Страница пишется из ResultSet в генератор формата
+ * ({@link SerializedPage}) в обход конвертеров Spring, поэтому формат по Accept выбирается здесь,
+ * а генератор берётся из {@link PageFormatFactories}.
+ * Остальные ответы выбирают формат через конвертеры (см. BinaryFormatsConfig), и данные в них те же.
+ */
+public enum PageFormat {
+
+    JSON(MediaType.APPLICATION_JSON),
+    CBOR(MediaType.APPLICATION_CBOR),
+    SMILE(MediaType.parseMediaType("application/x-jackson-smile"));
+
+    private final MediaType mediaType;
+
+    PageFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType mediaType() {
+        return this.mediaType;
+    }
+
+    /**
+     * Первый по q из поддерживаемых форматов; JSON, если Accept нет, он не разбирается
+     * или не называет ни одного из форматов.
+     */
+    static PageFormat negotiate(String accept) {
+        if (accept == null)
+            return JSON;
+
+        List<MediaType> accepted;
+        try {
+            accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+        } catch (InvalidMediaTypeException e) {
+            return JSON;
+        }
+        // сортировка устойчивая: при равном q остаётся порядок клиента, а */* совпадает с JSON
+        accepted.sort(Comparator.comparingDouble(MediaType::getQualityValue).reversed());
+        for (MediaType mediaType : accepted) {
+            if (mediaType.getQualityValue() == 0)
+                continue;
+            for (PageFormat format : values()) {
+                if (mediaType.isCompatibleWith(format.mediaType))
+                    return format;
+            }
+        }
+        return JSON;
+    }
+}
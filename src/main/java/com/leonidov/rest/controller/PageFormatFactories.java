@@ -0,0 +1,33 @@
+package com.leonidov.rest.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Фабрики генераторов для {@link PageFormat}, взятые у мапперов Spring: JSON-маппера и мапперов
+ * конвертеров CBOR и Smile из BinaryFormatsConfig. Страница, записанная из ResultSet,
+ * получает те же настройки генератора (spring.jackson.generator.*), что и ответы через конвертеры.
+ */
+@Component
+public class PageFormatFactories {
+
+    private final Map<PageFormat, JsonFactory> factories = new EnumMap<>(PageFormat.class);
+
+    public PageFormatFactories(ObjectMapper objectMapper,
+                               MappingJackson2CborHttpMessageConverter cborHttpMessageConverter,
+                               MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter) {
+        this.factories.put(PageFormat.JSON, objectMapper.getFactory());
+        this.factories.put(PageFormat.CBOR, cborHttpMessageConverter.getObjectMapper().getFactory());
+        this.factories.put(PageFormat.SMILE, smileHttpMessageConverter.getObjectMapper().getFactory());
+    }
+
+    public JsonFactory factory(PageFormat format) {
+        return this.factories.get(format);
+    }
+}
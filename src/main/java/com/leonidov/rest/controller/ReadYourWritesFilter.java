@@ -0,0 +1,81 @@
+package com.leonidov.rest.controller;
+
+import com.leonidov.rest.data.DataSourceRouting;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Read-your-writes при чтении с реплик: запрос, который может писать, выполняется целиком на основной базе
+ * и ставит клиенту cookie со сроком stickiness. Пока срок не истёк, чтения этого клиента тоже идут
+ * в основную базу, поэтому он видит свою запись, даже если реплики её ещё не получили.
+ * Остальные запросы открывают обычную область маршрутизации с одной репликой на запрос.
+ * <p>
+ * Пишущим считается любой метод, кроме GET/HEAD/OPTIONS/TRACE, за исключением путей из {@link #READ_ONLY_PATHS}:
+ * batch-get принимает POST только ради тела со списком id, а actuator не пишет в базу пользователей.
+ * Такие запросы не закрепляются за основной базой и не ставят cookie.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE_NAME = "users-primary-until";
+    private static final Set<String> SAFE_METHODS = Set.of("GET", "HEAD", "OPTIONS", "TRACE");
+    static final List<String> READ_ONLY_PATHS = List.of("/api/users/batch-get", "/actuator/**");
+    private static final PathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    private final Duration stickiness;
+
+    public ReadYourWritesFilter(Duration stickiness) {
+        this.stickiness = stickiness;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        long now = System.currentTimeMillis();
+        boolean write = !SAFE_METHODS.contains(request.getMethod()) && !readOnlyPath(request);
+        if (write) {
+            // ставим до обработки: после неё ответ может быть уже отправлен
+            Cookie cookie = new Cookie(COOKIE_NAME, String.valueOf(now + this.stickiness.toMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, this.stickiness.toSeconds()));
+            response.addCookie(cookie);
+        }
+
+        try (DataSourceRouting.Scope ignored = DataSourceRouting.openScope(write || pinnedUntil(request) > now)) {
+            filterChain.doFilter(request, response);
+        }
+    }
+
+    private static boolean readOnlyPath(HttpServletRequest request) {
+        String path = UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+        return READ_ONLY_PATHS.stream().anyMatch(pattern -> PATH_MATCHER.match(pattern, path));
+    }
+
+    private static long pinnedUntil(HttpServletRequest request) {
+        if (request.getCookies() == null)
+            return 0;
+
+        for (Cookie cookie : request.getCookies()) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                try {
+                    return Long.parseLong(cookie.getValue());
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+}
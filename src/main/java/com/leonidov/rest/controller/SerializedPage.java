@@ -0,0 +1,42 @@
+package com.leonidov.rest.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.service.UserService;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Страница GET /api/users, записанная массивом прямо из ResultSet ({@link UserService#writePage})
+ * генератором JSON или бинарного формата ({@link PageFormat}).
+ * Курсор становится известен только после чтения страницы, а он нужен в заголовке,
+ * поэтому тело собирается в массив байтов, а не пишется сразу в ответ.
+ *
+ * @param nextCursor {@code null}, если страница последняя
+ */
+record SerializedPage(byte[] body, UUID nextCursor) {
+
+    /**
+     * @param fields {@code null} — пользователи целиком
+     */
+    static SerializedPage write(UserService userService, JsonFactory jsonFactory,
+                                UUID after, int limit, List<UserField> fields) {
+        // растёт сегментами, а не копированием всего массива, как ByteArrayOutputStream; одно копирование в конце
+        try (ByteArrayBuilder body = new ByteArrayBuilder()) {
+            UUID nextCursor;
+            try (JsonGenerator generator = jsonFactory.createGenerator(body)) {
+                generator.writeStartArray();
+                nextCursor = userService.writePage(after, limit, fields, generator);
+                generator.writeEndArray();
+            }
+            return new SerializedPage(body.toByteArray(), nextCursor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.leonidov.rest.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.service.AsyncUserService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import static com.leonidov.rest.controller.UserRestController.APPLICATION_NDJSON_VALUE;
+import static com.leonidov.rest.controller.UserRestController.MAX_PAGE_SIZE;
+import static com.leonidov.rest.controller.UserRestController.NEXT_CURSOR_HEADER;
+
+/**
+ * Те же чтения, что в {@link UserRestController}, но поток Tomcat освобождается сразу:
+ * запрос к базе выполняется на пуле {@link AsyncUserService}, ответ отправляется по готовности.
+ */
+@RestController
+@RequestMapping("/api/async/users")
+public class UserAsyncRestController {
+
+    static final int EXPORT_CHUNK_SIZE = 256;
+
+    private final AsyncUserService asyncUserService;
+    private final ObjectWriter userWriter;
+
+    public UserAsyncRestController(AsyncUserService asyncUserService, ObjectMapper objectMapper) {
+        this.asyncUserService = asyncUserService;
+        this.userWriter = objectMapper.writerFor(User.class);
+    }
+
+    @GetMapping
+    public CompletableFuture<ResponseEntity<List<User>>> handleGetAllUsers(@RequestParam(required = false) UUID after,
+                                                                           @RequestParam(defaultValue = "100") int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        return this.asyncUserService.findPage(after, pageSize).thenApply(page -> {
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON);
+            if (page.nextCursor() != null)
+                response.header(NEXT_CURSOR_HEADER, page.nextCursor().toString());
+            return response.body(page.users());
+        });
+    }
+
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<User>> handleGetUser(@PathVariable UUID id,
+                                                                 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                                                 @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        PageFormat format = PageFormat.negotiate(accept);
+        return this.asyncUserService.findById(id).thenApply(user -> user
+                .map(found -> {
+                    String etag = EntityTags.of(found.version(), format);
+                    if (EntityTags.noneMatchHits(ifNoneMatch, etag))
+                        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).<User>build();
+                    return ResponseEntity.ok()
+                            .eTag(etag)
+                            .contentType(format.mediaType())
+                            .varyBy(HttpHeaders.ACCEPT)
+                            .body(found);
+                })
+                .orElseGet(() -> ResponseEntity.notFound().build()));
+    }
+
+    /**
+     * NDJSON-выгрузка, которая не держит ни поток Tomcat, ни поток MVC: строки читаются
+     * пачками по {@link #EXPORT_CHUNK_SIZE}, и следующая пачка запрашивается только после того,
+     * как предыдущая ушла клиенту.
+     */
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<ResponseBodyEmitter> handleExportUsers() {
+        // без таймаута: выгрузка длится столько, сколько её читает клиент
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(-1L);
+        this.asyncUserService.streamAll().subscribe(new NdjsonSubscriber(emitter, this.userWriter));
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(emitter);
+    }
+
+    private static final class NdjsonSubscriber implements Flow.Subscriber<User> {
+
+        private static final MediaType NDJSON = MediaType.parseMediaType(APPLICATION_NDJSON_VALUE);
+
+        private final ResponseBodyEmitter emitter;
+        private final ObjectWriter writer;
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        private Flow.Subscription subscription;
+        private int remaining;
+
+        NdjsonSubscriber(ResponseBodyEmitter emitter, ObjectWriter writer) {
+            this.emitter = emitter;
+            this.writer = writer;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            this.emitter.onError(e -> subscription.cancel());
+            this.emitter.onTimeout(subscription::cancel);
+            requestChunk();
+        }
+
+        @Override
+        public void onNext(User user) {
+            try {
+                this.writer.writeValue(this.chunk, user);
+                this.chunk.write('\n');
+                if (--this.remaining == 0) {
+                    sendChunk();
+                    requestChunk();
+                }
+            } catch (IOException e) {
+                // клиент ушёл или ответ не сериализуется: дальше читать курсор незачем
+                this.subscription.cancel();
+                this.emitter.completeWithError(e);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            this.emitter.completeWithError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                sendChunk();
+                this.emitter.complete();
+            } catch (IOException e) {
+                this.emitter.completeWithError(e);
+            }
+        }
+
+        private void requestChunk() {
+            this.remaining = EXPORT_CHUNK_SIZE;
+            this.subscription.request(EXPORT_CHUNK_SIZE);
+        }
+
+        private void sendChunk() throws IOException {
+            if (this.chunk.size() == 0)
+                return;
+            this.emitter.send(this.chunk.toByteArray(), NDJSON);
+            this.chunk.reset();
+        }
+    }
+}
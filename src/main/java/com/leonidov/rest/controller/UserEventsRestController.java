@@ -0,0 +1,70 @@
+package com.leonidov.rest.controller;
+
+import com.leonidov.rest.model.UserEvent;
+import com.leonidov.rest.service.UserEventLog;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Locale;
+
+@RestController
+@RequestMapping("/api/users")
+public class UserEventsRestController {
+
+    static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    private final UserEventLog userEventLog;
+
+    public UserEventsRestController(UserEventLog userEventLog) {
+        this.userEventLog = userEventLog;
+    }
+
+    /**
+     * Server-Sent Events с изменениями пользователей: {@code event} — created, updated, deleted или reset,
+     * {@code id} — номер события, {@code data} — {@link UserEvent} в JSON.
+     * Браузер при переподключении сам присылает {@code Last-Event-ID} и получает пропущенное из буфера;
+     * на reset клиент перечитывает список целиком.
+     *
+     * @param after номер, с которого продолжить при первом подключении, если заголовка ещё нет
+     */
+    @GetMapping(value = "/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter handleUserEvents(@RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) Long lastEventId,
+                                       @RequestParam(required = false) Long after) {
+        // без таймаута: соединение живёт, пока его держит клиент; ушедшего клиента находит heartbeat,
+        // а зависшую отправку обрывает send-timeout журнала
+        SseEmitter emitter = new SseEmitter(-1L);
+        UserEventLog.Subscription subscription = this.userEventLog.subscribe(
+                lastEventId != null ? lastEventId : after, new SseSubscriber(emitter));
+        emitter.onCompletion(subscription::close);
+        emitter.onError(e -> subscription.close());
+        return emitter;
+    }
+
+    private record SseSubscriber(SseEmitter emitter) implements UserEventLog.UserEventSubscriber {
+
+        @Override
+        public void onEvent(UserEvent event) throws IOException {
+            this.emitter.send(SseEmitter.event()
+                    .id(String.valueOf(event.sequence()))
+                    .name(event.type().name().toLowerCase(Locale.ROOT))
+                    .data(event, MediaType.APPLICATION_JSON));
+        }
+
+        @Override
+        public void onHeartbeat() throws IOException {
+            this.emitter.send(SseEmitter.event().comment("heartbeat"));
+        }
+
+        @Override
+        public void onClose() {
+            // клиент переподключится с Last-Event-ID и дочитает пропущенное из буфера
+            this.emitter.complete();
+        }
+    }
+}
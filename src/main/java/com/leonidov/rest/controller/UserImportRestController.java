@@ -0,0 +1,43 @@
+package com.leonidov.rest.controller;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leonidov.rest.model.NewUserPayload;
+import com.leonidov.rest.model.UserImportResult;
+import com.leonidov.rest.service.UserImportService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/users")
+public class UserImportRestController {
+
+    private final UserImportService userImportService;
+    private final ObjectMapper objectMapper;
+
+    public UserImportRestController(UserImportService userImportService,
+                                    ObjectMapper objectMapper) {
+        this.userImportService = userImportService;
+        this.objectMapper = objectMapper;
+    }
+
+    @PostMapping(value = "/bulk",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, UserRestController.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<List<UserImportResult>> handleImportUsers(InputStream body) throws IOException {
+        // массив JSON и NDJSON читаются одинаково, по одной записи за раз
+        try (MappingIterator<NewUserPayload> payloads = this.objectMapper
+                .readerFor(NewUserPayload.class)
+                .readValues(body)) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .body(this.userImportService.importUsers(payloads));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.leonidov.rest.controller;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.leonidov.rest.data.DataSourceRouting;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.service.UserEventLog;
+import com.leonidov.rest.service.UserService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Готовые тела ответов GET /api/users: страница в одном из {@link PageFormat} и, если включено, её gzip-версия,
+ * вместе с ETag и курсором следующей страницы. Попадание — это копирование байтов в сокет,
+ * без запросов к базе и без Jackson.
+ * <p>
+ * Страница считается устаревшей, как только после её построения в {@link UserEventLog} появилось событие,
+ * то есть прошла любая запись через сервисы. Устаревшая страница моложе max-stale отдаётся как есть,
+ * а пересобирается в фоне (stale-while-revalidate); старше — пересобирается в запросе,
+ * причём одновременные запросы за одной страницей ждут одной пересборки.
+ * Клиент, который только что писал ({@link DataSourceRouting#isPinnedToPrimary()}), устаревших страниц не получает.
+ * Запись в базу в обход сервисов кэш не замечает.
+ */
+@Component
+@ConditionalOnProperty(name = "users.list-cache.enabled", havingValue = "true")
+public class UserListResponseCache implements DisposableBean {
+
+    static final int GZIP_MIN_BYTES = 1024;
+
+    private final UserService userService;
+    private final UserEventLog userEventLog;
+    private final PageFormatFactories pageFormatFactories;
+    private final boolean gzip;
+    private final long maxStaleNanos;
+    private final ThreadPoolExecutor refreshes;
+    private final LoadingCache<Key, CachedPage> pages;
+    private final Counter staleHits;
+
+    public UserListResponseCache(UserService userService,
+                                 UserEventLog userEventLog,
+                                 PageFormatFactories pageFormatFactories,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${users.list-cache.max-entries:1024}") long maxEntries,
+                                 @Value("${users.list-cache.max-stale:2s}") Duration maxStale,
+                                 @Value("${users.list-cache.gzip:true}") boolean gzip) {
+        this.userService = userService;
+        this.userEventLog = userEventLog;
+        this.pageFormatFactories = pageFormatFactories;
+        this.gzip = gzip;
+        this.maxStaleNanos = maxStale.toNanos();
+        this.refreshes = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("user-list-cache-"));
+        new ExecutorServiceMetrics(this.refreshes, "user-list-cache", Tags.empty()).bindTo(meterRegistry);
+        this.pages = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .executor(this.refreshes)
+                .recordStats()
+                .build(this::build);
+        CaffeineCacheMetrics.monitor(meterRegistry, this.pages, "users-list");
+        this.staleHits = Counter.builder("users.list-cache.stale")
+                .description("Ответы из устаревшей страницы, пока новая собирается в фоне")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param fields {@code null} — пользователи целиком
+     */
+    public CachedPage get(UUID after, int limit, List<UserField> fields, PageFormat format) {
+        Key key = new Key(after, limit, fields, format);
+        CachedPage page = this.pages.get(key);
+        if (page.sequence() == this.userEventLog.lastSequence())
+            return page;
+
+        boolean pinned = DataSourceRouting.isPinnedToPrimary();
+        if (!pinned && isYoung(page)) {
+            // Caffeine не запускает второе обновление ключа, пока идёт первое
+            this.pages.refresh(key);
+            this.staleHits.increment();
+            return page;
+        }
+
+        // compute по ключу атомарен: одновременные запросы ждут одной пересборки и берут её результат,
+        // если после неё не было записи (или она ещё достаточно свежа для клиента без привязки)
+        return this.pages.asMap().compute(key, (k, current) ->
+                current != null && (current.sequence() == this.userEventLog.lastSequence() || !pinned && isYoung(current))
+                        ? current
+                        : build(k));
+    }
+
+    private boolean isYoung(CachedPage page) {
+        return System.nanoTime() - page.builtAtNanos() < this.maxStaleNanos;
+    }
+
+    private CachedPage build(Key key) {
+        // номер события и версию читаем до страницы: запись во время сборки оставит страницу устаревшей
+        long sequence = this.userEventLog.lastSequence();
+        long builtAtNanos = System.nanoTime();
+        // как и промахи кэша пользователей: страница с отстающей реплики продержалась бы до следующей записи
+        return DataSourceRouting.onPrimary(() -> {
+            String etag = EntityTags.weak(this.userService.findCollectionVersion(), key.format());
+            SerializedPage page = SerializedPage.write(this.userService, this.pageFormatFactories.factory(key.format()),
+                    key.after(), key.limit(), key.fields());
+            byte[] body = page.body();
+            return new CachedPage(sequence, builtAtNanos, etag,
+                    page.nextCursor() == null ? null : page.nextCursor().toString(),
+                    body, this.gzip && body.length >= GZIP_MIN_BYTES ? gzip(body) : null);
+        });
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    @Override
+    public void destroy() {
+        this.refreshes.shutdownNow();
+    }
+
+    private record Key(UUID after, int limit, List<UserField> fields, PageFormat format) {
+    }
+
+    /**
+     * @param nextCursor {@code null}, если страница последняя
+     * @param gzip       {@code null}, если сжатие выключено или ответ слишком мал, чтобы его сжимать
+     */
+    public record CachedPage(long sequence, long builtAtNanos, String etag, String nextCursor,
+                             byte[] body, byte[] gzip) {
+    }
+}
@@ -1,80 +1,243 @@
 package com.leonidov.rest.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leonidov.rest.exception.ErrorResponse;
 import com.leonidov.rest.model.NewUserPayload;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserIdGenerator;
+import com.leonidov.rest.model.UserProjection;
+import com.leonidov.rest.service.PasswordHasher;
 import com.leonidov.rest.service.UserService;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.MessageSource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.UncheckedIOException;
 import java.util.*;
 
 @RestController
 @RequestMapping("/api/users")
 public class UserRestController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final int MAX_PAGE_SIZE = 1000;
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final UserService userService;
     private final MessageSource messageSource;
+    private final ObjectMapper objectMapper;
+    private final PasswordHasher passwordHasher;
+    private final UserIdGenerator userIdGenerator;
+    private final UserListResponseCache userListResponseCache;
+    private final PageFormatFactories pageFormatFactories;
 
     public UserRestController(UserService userService,
-                              MessageSource messageSource) {
+                              MessageSource messageSource,
+                              ObjectMapper objectMapper,
+                              PasswordHasher passwordHasher,
+                              UserIdGenerator userIdGenerator,
+                              ObjectProvider<UserListResponseCache> userListResponseCache,
+                              PageFormatFactories pageFormatFactories) {
         this.userService = userService;
         this.messageSource = messageSource;
+        this.objectMapper = objectMapper;
+        this.passwordHasher = passwordHasher;
+        this.userIdGenerator = userIdGenerator;
+        // включается свойством users.list-cache.enabled, иначе каждая страница читается и сериализуется заново
+        this.userListResponseCache = userListResponseCache.getIfAvailable();
+        this.pageFormatFactories = pageFormatFactories;
     }
 
     @GetMapping
-    public ResponseEntity<List<User>> handleGetAllUsers() {
+    public ResponseEntity<?> handleGetAllUsers(@RequestParam(required = false) UUID after,
+                                               @RequestParam(defaultValue = "100") int limit,
+                                               @RequestParam(required = false) List<String> fields,
+                                               @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                               @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                               @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        List<UserField> projection = projection(fields);
+        PageFormat format = PageFormat.negotiate(accept);
+        if (this.userListResponseCache != null)
+            return cachedPage(after, limit, projection, format, ifNoneMatch, acceptEncoding);
+
+        // версию читаем до страницы: запись между ними даст устаревший тег и лишний 200, но не ложный 304
+        String etag = EntityTags.weak(this.userService.findCollectionVersion(), format);
+        if (EntityTags.noneMatchHits(ifNoneMatch, etag))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).varyBy(HttpHeaders.ACCEPT).build();
+
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        SerializedPage page = SerializedPage.write(this.userService, this.pageFormatFactories.factory(format),
+                after, pageSize, projection);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(etag)
+                .contentType(format.mediaType())
+                .varyBy(HttpHeaders.ACCEPT);
+        if (page.nextCursor() != null)
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor().toString());
+
+        return response.body(page.body());
+    }
+
+    private ResponseEntity<?> cachedPage(UUID after, int limit, List<UserField> projection, PageFormat format,
+                                         String ifNoneMatch, String acceptEncoding) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        UserListResponseCache.CachedPage page = this.userListResponseCache.get(after, pageSize, projection, format);
+        if (EntityTags.noneMatchHits(ifNoneMatch, page.etag()))
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(page.etag())
+                    .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(page.etag())
+                .contentType(format.mediaType())
+                .varyBy(HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_ENCODING);
+        if (page.nextCursor() != null)
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        if (page.gzip() != null && acceptsGzip(acceptEncoding))
+            return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(page.gzip());
+
+        return response.body(page.body());
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return false;
+
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip"))
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
+
+    @GetMapping(value = "/export", produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> handleExportUsers(@RequestParam(required = false) List<String> fields) {
+        List<UserField> projection = projection(fields);
+        // строки пишутся из ResultSet сразу в генератор, без User и без отдельного прохода Jackson
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(outputStream)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+                this.userService.writeNdjson(projection, generator);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+
         return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(this.userService.findAll());
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(body);
     }
 
     @PostMapping
     public ResponseEntity<?> handleAddNewUser(@Valid @RequestBody NewUserPayload payload,
             UriComponentsBuilder uriComponentsBuilder, Locale locale) {
 
-        if (userService.findByUsername(payload.username()).isPresent())
-            return ResponseEntity.badRequest()
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .body(new ErrorResponse("Ошибка",
-                            List.of(messageSource.getMessage(
-                                    "user.errors.not_create_is_username_exists", new Object[0], locale))));
-
-        User user = new User(payload.name(), payload.surname(),
-                payload.username(), payload.password());
+        User user = new User(userIdGenerator.nextId(), payload.name(), payload.surname(),
+                payload.username(), passwordHasher.hash(payload.password()));
 
-        userService.saveOrUpdate(user);
+        try {
+            userService.saveOrUpdate(user);
+        } catch (DuplicateKeyException e) {
+            return usernameExists(locale);
+        }
 
         return ResponseEntity.created(
                         uriComponentsBuilder.path("/api/users/{id}")
                             .build(Map.of("id", user.id())))
-                        .contentType(MediaType.APPLICATION_JSON)
                         .body(user);
     }
 
+    /**
+     * Формат выбирается по Accept так же, как для списка, и задаётся явно: ETag зависит от формата.
+     */
     @GetMapping("/{id}")
-    public ResponseEntity<User> handleGetUser(@PathVariable UUID id) {
-        return ResponseEntity.of(userService.findById(id));
+    public ResponseEntity<?> handleGetUser(@PathVariable UUID id,
+                                           @RequestParam(required = false) List<String> fields,
+                                           @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+                                           @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        List<UserField> projection = projection(fields);
+        PageFormat format = PageFormat.negotiate(accept);
+        if (ifNoneMatch != null) {
+            Optional<Long> version = userService.findVersionById(id);
+            if (version.isPresent() && EntityTags.noneMatchHits(ifNoneMatch, EntityTags.of(version.get(), format)))
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(EntityTags.of(version.get(), format))
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .build();
+        }
+
+        return userService.findById(id)
+                .map(user -> ResponseEntity.ok()
+                        .eTag(EntityTags.of(user.version(), format))
+                        .contentType(format.mediaType())
+                        .varyBy(HttpHeaders.ACCEPT)
+                        .body(projection == null ? user : UserProjection.of(user, projection)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Пользователи в порядке запрошенных id, на месте ненайденных — null.
+     */
+    @PostMapping("/batch-get")
+    public ResponseEntity<?> handleBatchGetUsers(@RequestBody List<UUID> ids,
+                                                 @RequestParam(required = false) List<String> fields,
+                                                 @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                 Locale locale) {
+        if (ids.size() > MAX_PAGE_SIZE)
+            return ResponseEntity.badRequest()
+                    .body(new ErrorResponse("Ошибка",
+                            List.of(messageSource.getMessage(
+                                    "user.errors.batch_too_large", new Object[]{MAX_PAGE_SIZE}, locale))));
+
+        List<UserField> projection = projection(fields);
+        Map<UUID, User> found = userService.findAllById(ids);
+        List<Object> users = new ArrayList<>(ids.size());
+        for (UUID id : ids) {
+            User user = id == null ? null : found.get(id);
+            users.add(user == null || projection == null ? user : UserProjection.of(user, projection));
+        }
+
+        return ResponseEntity.ok()
+                .contentType(PageFormat.negotiate(accept).mediaType())
+                .varyBy(HttpHeaders.ACCEPT)
+                .body(users);
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> handleDeleteUser(@PathVariable UUID id, Locale locale) {
+    public ResponseEntity<?> handleDeleteUser(@PathVariable UUID id,
+                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                              Locale locale) {
+        Set<Long> expectedVersions = EntityTags.ifMatchVersions(ifMatch);
+        boolean deleted = expectedVersions == null
+                ? userService.deleteById(id)
+                : userService.deleteById(id, expectedVersions);
 
-        if (userService.findById(id).isEmpty())
+        if (!deleted && expectedVersions != null && userService.findVersionById(id).isPresent())
+            return versionMismatch(locale);
+
+        if (!deleted && EntityTags.matchesAny(ifMatch))
+            return versionMismatch(locale);
+
+        if (!deleted)
             return ResponseEntity.badRequest()
-                    .contentType(MediaType.APPLICATION_JSON)
                     .body(new ErrorResponse("Ошибка",
                             List.of(messageSource.getMessage(
                                     "user.errors.find_by_id_not_exists", new Object[0], locale))));
 
-        userService.deleteById(id);
-
         return ResponseEntity.ok()
-                .contentType(MediaType.APPLICATION_JSON)
                 .body(new ErrorResponse("Успешно",
                         List.of(messageSource.getMessage(
                                 "user.success.delete", new Object[0], locale))));
@@ -82,25 +245,57 @@ public class UserRestController {
 
     @PutMapping("/{id}")
     public ResponseEntity<?> handleUpdateUser(@PathVariable UUID id, @Valid @RequestBody NewUserPayload payload,
+                                              @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
                                               UriComponentsBuilder uriComponentsBuilder, Locale locale) {
-        Optional<User> user = userService.findById(id);
+        User updatedUser = new User(id, payload.name(), payload.surname(),
+                payload.username(), passwordHasher.hash(payload.password()));
+        Set<Long> expectedVersions = EntityTags.ifMatchVersions(ifMatch);
+
+        boolean updated;
+        try {
+            updated = expectedVersions == null
+                    ? userService.update(updatedUser)
+                    : userService.update(updatedUser, expectedVersions);
+        } catch (DuplicateKeyException e) {
+            return usernameExists(locale);
+        }
+
+        if (!updated && expectedVersions != null && userService.findVersionById(id).isPresent())
+            return versionMismatch(locale);
 
-        if (user.isEmpty())
+        if (!updated && EntityTags.matchesAny(ifMatch))
+            return versionMismatch(locale);
+
+        if (!updated)
             return ResponseEntity.badRequest()
-                    .contentType(MediaType.APPLICATION_JSON)
                     .body(new ErrorResponse("Ошибка",
                             List.of(messageSource.getMessage(
                                     "user.errors.find_by_id_not_exists", new Object[0], locale))));
 
-        User updatedUser = new User(user.get().id(), payload.name(), payload.surname(),
-                payload.username(), payload.password());
-
-        userService.saveOrUpdate(updatedUser);
-
         return ResponseEntity.created(
                         uriComponentsBuilder.path("/api/users/get/{id}")
                                 .build(Map.of("id", updatedUser.id())))
-                .contentType(MediaType.APPLICATION_JSON)
                 .body(updatedUser);
     }
+
+    /**
+     * @return {@code null}, если fields не передан и нужен пользователь целиком
+     */
+    private static List<UserField> projection(List<String> fields) {
+        return fields == null ? null : UserField.parse(fields);
+    }
+
+    private ResponseEntity<ErrorResponse> versionMismatch(Locale locale) {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                .body(new ErrorResponse("Ошибка",
+                        List.of(messageSource.getMessage(
+                                "user.errors.version_mismatch", new Object[0], locale))));
+    }
+
+    private ResponseEntity<ErrorResponse> usernameExists(Locale locale) {
+        return ResponseEntity.badRequest()
+                .body(new ErrorResponse("Ошибка",
+                        List.of(messageSource.getMessage(
+                                "user.errors.not_create_is_username_exists", new Object[0], locale))));
+    }
 }
@@ -0,0 +1,51 @@
+package com.leonidov.rest.controller;
+
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserSearchMode;
+import com.leonidov.rest.model.UserSearchPage;
+import com.leonidov.rest.service.UserSearchService;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/users")
+public class UserSearchRestController {
+
+    static final int MAX_SEARCH_PAGE_SIZE = 100;
+
+    private final UserSearchService userSearchService;
+
+    public UserSearchRestController(UserSearchService userSearchService) {
+        this.userSearchService = userSearchService;
+    }
+
+    /**
+     * @param mode prefix — регистронезависимый поиск по началу username, имени или фамилии;
+     *             fulltext — поиск по словам, если включён users.search.fulltext.enabled;
+     *             другие значения — 400
+     */
+    @GetMapping("/search")
+    public ResponseEntity<List<User>> handleSearchUsers(@RequestParam String q,
+                                                        @RequestParam(defaultValue = "prefix") String mode,
+                                                        @RequestParam(required = false) String after,
+                                                        @RequestParam(defaultValue = "20") int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_SEARCH_PAGE_SIZE);
+        UserSearchPage page = switch (UserSearchMode.fromParam(mode)) {
+            case PREFIX -> this.userSearchService.searchByPrefix(q, after, pageSize);
+            case FULLTEXT -> this.userSearchService.searchFullText(q, after, pageSize);
+        };
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON);
+        if (page.nextCursor() != null)
+            response.header(UserRestController.NEXT_CURSOR_HEADER, page.nextCursor());
+
+        return response.body(page.users());
+    }
+}
@@ -0,0 +1,104 @@
+package com.leonidov.rest.data;
+
+import java.util.function.Supplier;
+
+/**
+ * Куда {@link ReplicaRoutingDataSource} направляет соединения текущего потока.
+ * <p>
+ * Реплике разрешены только чтения репозитория, помеченные {@link #replicaRead}; запись, транзакции
+ * и всё, что выполняется в области с {@code primary = true}, идёт в основную базу.
+ * Внутри одной области все чтения берут одну и ту же реплику: версия коллекции и страница,
+ * прочитанные из реплик с разным отставанием, дали бы ETag новее содержимого.
+ */
+public final class DataSourceRouting {
+
+    private static final ThreadLocal<Scope> SCOPE = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+
+    private DataSourceRouting() {
+    }
+
+    /**
+     * Открывает область маршрутизации в текущем потоке; {@link Scope#close()} возвращает предыдущую.
+     *
+     * @param primary все чтения области идут в основную базу (например, сразу после записи этого клиента)
+     */
+    public static Scope openScope(boolean primary) {
+        Scope scope = new Scope(primary, SCOPE.get());
+        SCOPE.set(scope);
+        return scope;
+    }
+
+    public static <T> T onPrimary(Supplier<T> action) {
+        try (Scope ignored = openScope(true)) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Переносит область текущего потока в задачу, которая выполнится на другом потоке.
+     */
+    public static <T> Supplier<T> inCurrentScope(Supplier<T> action) {
+        Scope captured = SCOPE.get();
+        return () -> {
+            Scope previous = SCOPE.get();
+            SCOPE.set(captured);
+            try {
+                return action.get();
+            } finally {
+                SCOPE.set(previous);
+            }
+        };
+    }
+
+    public static boolean isPinnedToPrimary() {
+        Scope scope = SCOPE.get();
+        return scope != null && scope.primary;
+    }
+
+    static <T> T replicaRead(Supplier<T> read) {
+        Boolean previous = REPLICA_READ.get();
+        REPLICA_READ.set(Boolean.TRUE);
+        try {
+            return read.get();
+        } finally {
+            REPLICA_READ.set(previous);
+        }
+    }
+
+    static void replicaRead(Runnable read) {
+        replicaRead(() -> {
+            read.run();
+            return null;
+        });
+    }
+
+    static boolean isReplicaRead() {
+        return REPLICA_READ.get() != null && !isPinnedToPrimary();
+    }
+
+    static Scope currentScope() {
+        return SCOPE.get();
+    }
+
+    public static final class Scope implements AutoCloseable {
+
+        private final boolean primary;
+        private final Scope previous;
+        // реплика, выбранная первым чтением области; область может переходить между потоками
+        volatile Object replica;
+
+        private Scope(boolean primary, Scope previous) {
+            this.primary = primary;
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (this.previous == null)
+                SCOPE.remove();
+            else
+                SCOPE.set(this.previous);
+        }
+    }
+}
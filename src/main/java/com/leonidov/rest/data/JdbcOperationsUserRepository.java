@@ -1,19 +1,55 @@
 package com.leonidov.rest.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserSearchHit;
+import com.leonidov.rest.model.UserSearchPosition;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface JdbcOperationsUserRepository {
 
     List<User> findAll();
+    List<User> findPage(UUID after, int limit);
+    void streamAll(Consumer<User> action);
+
+    /**
+     * Пишет до {@code limit} пользователей элементами JSON-массива прямо из ResultSet, не создавая {@link User};
+     * массив открывает и закрывает вызывающий. Ошибка записи приходит как {@code UncheckedIOException}.
+     *
+     * @param fields {@code null} — пользователи целиком
+     * @return курсор следующей страницы или {@code null}, если страница последняя
+     */
+    UUID writePage(UUID after, int limit, List<UserField> fields, JsonGenerator generator);
+
+    /**
+     * Пишет всех пользователей в NDJSON (объект и перевод строки на каждого) прямо из ResultSet.
+     *
+     * @param fields {@code null} — пользователи целиком
+     */
+    void writeNdjson(List<UserField> fields, JsonGenerator generator);
     Optional<User> findById(UUID id);
+    List<User> findAllById(Collection<UUID> ids);
     Optional<User> findByUsername(String username);
+    List<UserSearchHit> searchByPrefix(String prefix, UserSearchPosition after, int limit);
+    List<User> searchFullText(String text, int offset, int limit);
+    Optional<Long> findVersionById(UUID id);
+    String findCollectionVersion();
+    Set<String> findExistingUsernames(Collection<String> usernames);
     void save(User user);
+    void saveAll(List<User> users);
+    void upsert(User user);
+    void upsertAll(List<User> users);
 
-    public void update(User user);
-    void deleteById(UUID id);
+    public boolean update(User user);
+    boolean update(User user, Collection<Long> expectedVersions);
+    boolean deleteById(UUID id);
+    boolean deleteById(UUID id, Collection<Long> expectedVersions);
 
 }
@@ -1,71 +1,410 @@
 package com.leonidov.rest.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserSearchHit;
+import com.leonidov.rest.model.UserSearchPosition;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.StringJoiner;
 import java.util.UUID;
+import java.util.function.Consumer;
+
+import static com.leonidov.rest.data.DataSourceRouting.replicaRead;
 
 @Repository
 public class JdbcOperationsUserRepositoryImpl implements JdbcOperationsUserRepository, RowMapper<User> {
 
     private final JdbcOperations jdbcOperations;
 
-    public JdbcOperationsUserRepositoryImpl(JdbcOperations jdbcOperations) {
+    private final OperationMetrics findAllMetrics;
+    private final OperationMetrics findPageMetrics;
+    private final OperationMetrics streamAllMetrics;
+    private final OperationMetrics findByIdMetrics;
+    private final OperationMetrics findAllByIdMetrics;
+    private final OperationMetrics findByUsernameMetrics;
+    private final OperationMetrics searchByPrefixMetrics;
+    private final OperationMetrics searchFullTextMetrics;
+    private final OperationMetrics findVersionByIdMetrics;
+    private final OperationMetrics findCollectionVersionMetrics;
+    private final OperationMetrics findExistingUsernamesMetrics;
+    private final OperationMetrics saveMetrics;
+    private final OperationMetrics saveAllMetrics;
+    private final OperationMetrics upsertMetrics;
+    private final OperationMetrics upsertAllMetrics;
+    private final OperationMetrics updateMetrics;
+    private final OperationMetrics deleteByIdMetrics;
+    private final DistributionSummary findAllRows;
+    private final DistributionSummary findPageRows;
+    private final DistributionSummary streamAllRows;
+
+    public JdbcOperationsUserRepositoryImpl(JdbcOperations jdbcOperations,
+                                            MeterRegistry meterRegistry) {
         this.jdbcOperations = jdbcOperations;
+
+        this.findAllMetrics = new OperationMetrics(meterRegistry, "findAll");
+        this.findPageMetrics = new OperationMetrics(meterRegistry, "findPage");
+        this.streamAllMetrics = new OperationMetrics(meterRegistry, "streamAll");
+        this.findByIdMetrics = new OperationMetrics(meterRegistry, "findById");
+        this.findAllByIdMetrics = new OperationMetrics(meterRegistry, "findAllById");
+        this.findByUsernameMetrics = new OperationMetrics(meterRegistry, "findByUsername");
+        this.searchByPrefixMetrics = new OperationMetrics(meterRegistry, "searchByPrefix");
+        this.searchFullTextMetrics = new OperationMetrics(meterRegistry, "searchFullText");
+        this.findVersionByIdMetrics = new OperationMetrics(meterRegistry, "findVersionById");
+        this.findCollectionVersionMetrics = new OperationMetrics(meterRegistry, "findCollectionVersion");
+        this.findExistingUsernamesMetrics = new OperationMetrics(meterRegistry, "findExistingUsernames");
+        this.saveMetrics = new OperationMetrics(meterRegistry, "save");
+        this.saveAllMetrics = new OperationMetrics(meterRegistry, "saveAll");
+        this.upsertMetrics = new OperationMetrics(meterRegistry, "upsert");
+        this.upsertAllMetrics = new OperationMetrics(meterRegistry, "upsertAll");
+        this.updateMetrics = new OperationMetrics(meterRegistry, "update");
+        this.deleteByIdMetrics = new OperationMetrics(meterRegistry, "deleteById");
+        this.findAllRows = rowsSummary(meterRegistry, "findAll");
+        this.findPageRows = rowsSummary(meterRegistry, "findPage");
+        this.streamAllRows = rowsSummary(meterRegistry, "streamAll");
+    }
+
+    private static DistributionSummary rowsSummary(MeterRegistry meterRegistry, String operation) {
+        return DistributionSummary.builder("users.repository.rows")
+                .description("Количество строк, прочитанных операцией")
+                .baseUnit("rows")
+                .tag("operation", operation)
+                .register(meterRegistry);
     }
 
-    private static final String SELECT_ALL_SQL = "SELECT * FROM t_users";
-    private static final String SELECT_USER_BY_ID_SQL = "SELECT * FROM t_users WHERE id = ?";
-    private static final String SELECT_USER_BY_USERNAME_SQL = "SELECT * FROM t_users WHERE c_username = ?";
+    private static final int STREAM_FETCH_SIZE = 1000;
+    // поля пользователя целиком, в порядке его JSON-представления
+    private static final List<UserField> ALL_FIELDS = List.of(UserField.values());
+    private static final int FIND_ALL_BY_ID_CHUNK_SIZE = 500;
+
+    // порядок колонок совпадает с позициями, которые читает mapRow
+    private static final String USER_COLUMNS = "id, c_name, c_surname, c_username, c_password, c_version";
+    private static final String SELECT_ALL_SQL = "SELECT " + USER_COLUMNS + " FROM t_users";
+    private static final String SELECT_FIRST_PAGE_SQL = "SELECT %s FROM t_users ORDER BY id LIMIT ?";
+    private static final String SELECT_PAGE_AFTER_SQL = "SELECT %s FROM t_users WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_USER_BY_ID_SQL = "SELECT " + USER_COLUMNS + " FROM t_users WHERE id = ?";
+    // id передаются одним параметром-массивом: текст запроса не зависит от их числа, а H2 ищет их по первичному ключу
+    private static final String SELECT_USERS_BY_IDS_SQL = "SELECT " + USER_COLUMNS + " FROM t_users WHERE id = ANY(?)";
+    private static final String SELECT_USER_BY_USERNAME_SQL = "SELECT " + USER_COLUMNS + " FROM t_users WHERE c_username = ?";
+    private static final String SELECT_PROJECTION_ALL_SQL = "SELECT %s FROM t_users";
+    // колонки в нижнем регистре, по которым ищется префикс, в порядке ранга совпадения (UserSearchPosition.RANKS штук)
+    private static final List<String> SEARCH_COLUMNS = List.of("c_username_lower", "c_name_lower", "c_surname_lower");
+    private static final String SEARCH_FULL_TEXT_SQL = "SELECT u.id, u.c_name, u.c_surname, u.c_username, u.c_password, u.c_version"
+            + " FROM FT_SEARCH_DATA(?, ?, ?) ft JOIN t_users u ON u.id = ft.KEYS[1] WHERE ft.\"TABLE\" = 'T_USERS'";
+    private static final String SELECT_VERSION_BY_ID_SQL = "SELECT c_version FROM t_users WHERE id = ?";
+    private static final String SELECT_COLLECTION_VERSION_SQL = "SELECT COUNT(*), MAX(c_version) FROM t_users";
+    private static final String SELECT_USERNAMES_IN_SQL = "SELECT c_username FROM t_users WHERE c_username IN (%s)";
     private static final String INSERT_USER_SQL = "INSERT INTO t_users(id, c_name, c_surname, c_username, c_password) VALUES (?, ?, ?, ?, ?)";
-    private static final String UPDATE_USER_SQL = "UPDATE t_users SET c_name=?, c_surname=?, c_username=?, c_password=? WHERE id = ?";
+    private static final String UPSERT_USER_SQL = "MERGE INTO t_users(id, c_name, c_surname, c_username, c_password, c_version) KEY(id) VALUES (?, ?, ?, ?, ?, NEXT VALUE FOR seq_users_version)";
+    private static final String UPDATE_USER_SQL = "UPDATE t_users SET c_name=?, c_surname=?, c_username=?, c_password=?, c_version = NEXT VALUE FOR seq_users_version WHERE id = ?";
+    private static final String UPDATE_USER_IF_VERSION_SQL = UPDATE_USER_SQL + " AND c_version IN (%s)";
     private static final String DELETE_USER_BY_ID_SQL = "DELETE FROM t_users WHERE id = ?";
+    private static final String DELETE_USER_BY_ID_IF_VERSION_SQL = DELETE_USER_BY_ID_SQL + " AND c_version IN (%s)";
 
     @Override
     public List<User> findAll() {
-        return this.jdbcOperations.query(SELECT_ALL_SQL, this);
+        List<User> users = this.findAllMetrics.record(() -> replicaRead(() -> this.jdbcOperations.query(SELECT_ALL_SQL, this)));
+        this.findAllRows.record(users.size());
+        return users;
+    }
+
+    @Override
+    public List<User> findPage(UUID after, int limit) {
+        List<User> users = this.findPageMetrics.record(() -> replicaRead(() -> {
+            if (after == null)
+                return this.jdbcOperations.query(SELECT_FIRST_PAGE_SQL.formatted(USER_COLUMNS), this, limit);
+
+            return this.jdbcOperations.query(SELECT_PAGE_AFTER_SQL.formatted(USER_COLUMNS), this, after, limit);
+        }));
+        this.findPageRows.record(users.size());
+        return users;
+    }
+
+    @Override
+    public void streamAll(Consumer<User> action) {
+        int[] rows = new int[1];
+        stream(SELECT_ALL_SQL, rs -> {
+            rows[0]++;
+            action.accept(mapRow(rs, rs.getRow()));
+        });
+        this.streamAllRows.record(rows[0]);
+    }
+
+    private void stream(String sql, RowCallbackHandler handler) {
+        this.streamAllMetrics.run(() -> replicaRead(() -> this.jdbcOperations.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(STREAM_FETCH_SIZE);
+            return statement;
+        }, handler)));
+    }
+
+    @Override
+    public UUID writePage(UUID after, int limit, List<UserField> fields, JsonGenerator generator) {
+        List<UserField> columns = fields == null ? ALL_FIELDS : fields;
+        UserJsonRowWriter writer = new UserJsonRowWriter(columns);
+        // одна лишняя строка показывает, есть ли следующая страница; сама она не пишется
+        Object[] args = after == null ? new Object[]{limit + 1} : new Object[]{after, limit + 1};
+        String sql = (after == null ? SELECT_FIRST_PAGE_SQL : SELECT_PAGE_AFTER_SQL).formatted(columns(columns));
+
+        int[] rows = new int[1];
+        UUID[] last = new UUID[1];
+        boolean[] hasNext = new boolean[1];
+        this.findPageMetrics.run(() -> replicaRead(() -> this.jdbcOperations.query(sql, (RowCallbackHandler) rs -> {
+            if (rows[0] == limit) {
+                hasNext[0] = true;
+                return;
+            }
+            rows[0]++;
+            last[0] = writeRow(writer, rs, generator);
+        }, args)));
+        this.findPageRows.record(rows[0]);
+        return hasNext[0] ? last[0] : null;
+    }
+
+    @Override
+    public void writeNdjson(List<UserField> fields, JsonGenerator generator) {
+        List<UserField> columns = fields == null ? ALL_FIELDS : fields;
+        UserJsonRowWriter writer = new UserJsonRowWriter(columns);
+        // строки разделяет '\n', а не пробел, который генератор по умолчанию ставит между объектами верхнего уровня
+        generator.setRootValueSeparator(null);
+        int[] rows = new int[1];
+        stream(SELECT_PROJECTION_ALL_SQL.formatted(columns(columns)), rs -> {
+            rows[0]++;
+            writeRow(writer, rs, generator);
+            try {
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        this.streamAllRows.record(rows[0]);
+    }
+
+    private static UUID writeRow(UserJsonRowWriter writer, ResultSet rs, JsonGenerator generator) throws SQLException {
+        try {
+            return writer.write(rs, generator);
+        } catch (IOException e) {
+            // клиент ушёл: исключение прерывает чтение курсора и доходит до вызывающего
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
     public Optional<User> findById(UUID id) {
-        return this.jdbcOperations.query(SELECT_USER_BY_ID_SQL,
-                new Object[]{id}, this).stream().findFirst();
+        return this.findByIdMetrics.record(() -> replicaRead(() -> this.jdbcOperations.query(SELECT_USER_BY_ID_SQL,
+                new Object[]{id}, this).stream().findFirst()));
+    }
+
+    @Override
+    public List<User> findAllById(Collection<UUID> ids) {
+        List<UUID> idList = List.copyOf(ids);
+        List<User> users = new ArrayList<>(idList.size());
+        for (int from = 0; from < idList.size(); from += FIND_ALL_BY_ID_CHUNK_SIZE) {
+            UUID[] chunk = idList.subList(from, Math.min(from + FIND_ALL_BY_ID_CHUNK_SIZE, idList.size()))
+                    .toArray(UUID[]::new);
+            users.addAll(this.findAllByIdMetrics.record(() -> replicaRead(() ->
+                    this.jdbcOperations.query(SELECT_USERS_BY_IDS_SQL, this, (Object) chunk))));
+        }
+        return users;
     }
 
     @Override
     public Optional<User> findByUsername(String username) {
-        return this.jdbcOperations.query(SELECT_USER_BY_USERNAME_SQL,
-                new Object[]{username}, this).stream().findFirst();
+        return this.findByUsernameMetrics.record(() -> replicaRead(() -> this.jdbcOperations.query(
+                SELECT_USER_BY_USERNAME_SQL, new Object[]{username}, this).stream().findFirst()));
+    }
+
+    /**
+     * Каждая колонка ищется отдельной веткой UNION ALL по своему индексу (key, id) с собственным LIMIT,
+     * поэтому запрос читает не больше limit строк на ветку при любом размере таблицы.
+     * Пользователь, совпавший в нескольких колонках, попадает только в ветку с лучшим рангом.
+     * Продолжение после {@code after} — keyset: ветки с меньшим рангом пропускаются,
+     * а ветка с тем же рангом начинает с позиции курсора по индексу.
+     */
+    @Override
+    public List<UserSearchHit> searchByPrefix(String prefix, UserSearchPosition after, int limit) {
+        String pattern = escapeLike(prefix.toLowerCase(Locale.ROOT)) + "%";
+        StringJoiner union = new StringJoiner(" UNION ALL ");
+        List<Object> args = new ArrayList<>();
+
+        for (int rank = after == null ? 0 : after.rank(); rank < SEARCH_COLUMNS.size(); rank++) {
+            String column = SEARCH_COLUMNS.get(rank);
+            StringBuilder branch = new StringBuilder("(SELECT ").append(USER_COLUMNS)
+                    .append(", ").append(rank).append(" AS c_rank, ").append(column).append(" AS c_key")
+                    .append(" FROM t_users WHERE ").append(column).append(" LIKE ? ESCAPE '\\'");
+            args.add(pattern);
+            for (String better : SEARCH_COLUMNS.subList(0, rank)) {
+                branch.append(" AND COALESCE(").append(better).append(", '') NOT LIKE ? ESCAPE '\\'");
+                args.add(pattern);
+            }
+            if (after != null && rank == after.rank()) {
+                branch.append(" AND ").append(column).append(" >= ? AND (").append(column).append(", id) > (?, ?)");
+                args.addAll(List.of(after.key(), after.key(), after.id()));
+            }
+            branch.append(" ORDER BY ").append(column).append(", id LIMIT ?)");
+            args.add(limit);
+            union.add(branch);
+        }
+
+        if (union.length() == 0)
+            return List.of();
+
+        String sql = union + " ORDER BY c_rank, c_key, id LIMIT ?";
+        args.add(limit);
+        return this.searchByPrefixMetrics.record(() -> replicaRead(() -> this.jdbcOperations.query(sql, (rs, rowNum) ->
+                new UserSearchHit(mapRow(rs, rowNum), new UserSearchPosition(rs.getInt(7), rs.getString(8),
+                        rs.getObject(1, UUID.class))), args.toArray())));
+    }
+
+    /**
+     * Поиск по словам встроенным полнотекстовым индексом H2 (FT_SEARCH_DATA),
+     * индекс создаётся при users.search.fulltext.enabled=true.
+     */
+    @Override
+    public List<User> searchFullText(String text, int offset, int limit) {
+        return this.searchFullTextMetrics.record(() -> replicaRead(() -> this.jdbcOperations.query(SEARCH_FULL_TEXT_SQL,
+                this, text, limit, offset)));
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    @Override
+    public Optional<Long> findVersionById(UUID id) {
+        return this.findVersionByIdMetrics.record(() -> replicaRead(() -> this.jdbcOperations.queryForList(
+                SELECT_VERSION_BY_ID_SQL, Long.class, id).stream().findFirst()));
+    }
+
+    /**
+     * Версия каждой записи берётся из общей последовательности, поэтому пара (количество строк, максимальная версия)
+     * меняется при любой вставке, изменении или удалении, а оба значения H2 получает без чтения таблицы.
+     */
+    @Override
+    public String findCollectionVersion() {
+        return this.findCollectionVersionMetrics.record(() -> replicaRead(() -> this.jdbcOperations.queryForObject(
+                SELECT_COLLECTION_VERSION_SQL, (rs, rowNum) -> rs.getLong(1) + "-" + rs.getLong(2))));
+    }
+
+    @Override
+    public Set<String> findExistingUsernames(Collection<String> usernames) {
+        if (usernames.isEmpty())
+            return Set.of();
+
+        String sql = SELECT_USERNAMES_IN_SQL.formatted(placeholders(usernames.size()));
+        return this.findExistingUsernamesMetrics.record(() ->
+                new HashSet<>(this.jdbcOperations.queryForList(sql, String.class, usernames.toArray())));
     }
 
     @Override
     public void save(User user) {
-            this.jdbcOperations.update(INSERT_USER_SQL, user.id(), user.name(),
-                    user.surname(), user.username(), user.password());
+        this.saveMetrics.run(() -> this.jdbcOperations.update(INSERT_USER_SQL, user.id(), user.name(),
+                user.surname(), user.username(), user.passwordHash()));
+    }
+
+    @Override
+    public void saveAll(List<User> users) {
+        this.saveAllMetrics.run(() -> this.jdbcOperations.batchUpdate(INSERT_USER_SQL, users.stream()
+                .map(user -> new Object[]{user.id(), user.name(), user.surname(),
+                        user.username(), user.passwordHash()})
+                .toList()));
+    }
+
+    @Override
+    public void upsert(User user) {
+        this.upsertMetrics.run(() -> this.jdbcOperations.update(UPSERT_USER_SQL, user.id(), user.name(),
+                user.surname(), user.username(), user.passwordHash()));
     }
 
     @Override
-    public void update(User user) {
-        this.jdbcOperations.update(UPDATE_USER_SQL,
+    public void upsertAll(List<User> users) {
+        this.upsertAllMetrics.run(() -> this.jdbcOperations.batchUpdate(UPSERT_USER_SQL, users.stream()
+                .map(user -> new Object[]{user.id(), user.name(), user.surname(),
+                        user.username(), user.passwordHash()})
+                .toList()));
+    }
+
+    @Override
+    public boolean update(User user) {
+        return this.updateMetrics.record(() -> this.jdbcOperations.update(UPDATE_USER_SQL,
                 user.name(), user.surname(), user.username(),
-                user.password(), user.id());
+                user.passwordHash(), user.id()) > 0);
     }
 
     @Override
-    public void deleteById(UUID id) {
-        this.jdbcOperations.update(DELETE_USER_BY_ID_SQL, id);
+    public boolean update(User user, Collection<Long> expectedVersions) {
+        if (expectedVersions.isEmpty())
+            return false;
+
+        String sql = UPDATE_USER_IF_VERSION_SQL.formatted(placeholders(expectedVersions.size()));
+        List<Object> args = new ArrayList<>(List.of(user.name(), user.surname(), user.username(),
+                user.passwordHash(), user.id()));
+        args.addAll(expectedVersions);
+        return this.updateMetrics.record(() -> this.jdbcOperations.update(sql, args.toArray()) > 0);
+    }
+
+    @Override
+    public boolean deleteById(UUID id) {
+        return this.deleteByIdMetrics.record(() -> this.jdbcOperations.update(DELETE_USER_BY_ID_SQL, id) > 0);
+    }
+
+    @Override
+    public boolean deleteById(UUID id, Collection<Long> expectedVersions) {
+        if (expectedVersions.isEmpty())
+            return false;
+
+        String sql = DELETE_USER_BY_ID_IF_VERSION_SQL.formatted(placeholders(expectedVersions.size()));
+        List<Object> args = new ArrayList<>();
+        args.add(id);
+        args.addAll(expectedVersions);
+        return this.deleteByIdMetrics.record(() -> this.jdbcOperations.update(sql, args.toArray()) > 0);
+    }
+
+    private static String columns(List<UserField> fields) {
+        StringJoiner columns = new StringJoiner(", ");
+        for (UserField field : fields)
+            columns.add(column(field));
+        return columns.toString();
+    }
+
+    private static String column(UserField field) {
+        return switch (field) {
+            case ID -> "id";
+            case NAME -> "c_name";
+            case SURNAME -> "c_surname";
+            case USERNAME -> "c_username";
+        };
+    }
+
+    private static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
     }
 
     @Override
     public User mapRow(ResultSet rs, int rowNum) throws SQLException {
-        return new User(rs.getObject("id", UUID.class),
-                rs.getString("c_name"), rs.getString("c_surname"),
-                rs.getString("c_username"), rs.getString("c_password"));
+        return new User(rs.getObject(1, UUID.class),
+                rs.getString(2), rs.getString(3),
+                rs.getString(4), rs.getString(5),
+                rs.getLong(6));
     }
 }
@@ -0,0 +1,51 @@
+package com.leonidov.rest.data;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Таймер и счётчик ошибок одной операции репозитория. Метры создаются один раз,
+ * чтобы на каждом вызове не искать их в реестре.
+ */
+final class OperationMetrics {
+
+    static final String TIMER_NAME = "users.repository";
+    static final String ERRORS_NAME = "users.repository.errors";
+
+    private final Timer timer;
+    private final Counter errors;
+
+    OperationMetrics(MeterRegistry meterRegistry, String operation) {
+        this.timer = Timer.builder(TIMER_NAME)
+                .description("Время выполнения операций JdbcOperationsUserRepository")
+                .tag("operation", operation)
+                .register(meterRegistry);
+        this.errors = Counter.builder(ERRORS_NAME)
+                .description("Операции JdbcOperationsUserRepository, завершившиеся исключением")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    <T> T record(Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } catch (RuntimeException e) {
+            this.errors.increment();
+            throw e;
+        } finally {
+            this.timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void run(Runnable action) {
+        record(() -> {
+            action.run();
+            return null;
+        });
+    }
+}
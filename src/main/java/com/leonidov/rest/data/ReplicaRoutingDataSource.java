@@ -0,0 +1,123 @@
+package com.leonidov.rest.data;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * DataSource, который отдаёт соединения с реплик для чтений репозитория ({@link DataSourceRouting})
+ * и с основной базы для всего остального. Реплики чередуются по кругу; реплика, не отдавшая
+ * соединение, выключается до следующей успешной проверки, которая идёт раз в health-check-interval.
+ * Если живых реплик нет, чтения идут в основную базу.
+ * <p>
+ * Транзакция берёт соединение при начале, ещё без пометки чтения, поэтому все запросы внутри
+ * транзакции выполняются на основной базе.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 1;
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService healthChecks;
+
+    public ReplicaRoutingDataSource(DataSource primary, List<? extends DataSource> replicas,
+                                    Duration healthCheckInterval, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        Gauge.builder("users.datasource.replicas.healthy", this,
+                        routing -> routing.replicas.stream().filter(replica -> replica.healthy).count())
+                .description("Реплики, которым сейчас отправляются чтения")
+                .register(meterRegistry);
+
+        this.healthChecks = Executors.newSingleThreadScheduledExecutor(
+                new CustomizableThreadFactory("replica-health-"));
+        long interval = healthCheckInterval.toMillis();
+        this.healthChecks.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!DataSourceRouting.isReplicaRead())
+            return this.primary.getConnection();
+
+        DataSourceRouting.Scope scope = DataSourceRouting.currentScope();
+        for (int attempt = 0; attempt < this.replicas.size(); attempt++) {
+            Replica replica = scope != null && scope.replica instanceof Replica chosen && chosen.healthy
+                    ? chosen
+                    : nextHealthy();
+            if (replica == null)
+                break;
+
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                if (scope != null)
+                    scope.replica = replica;
+                return connection;
+            } catch (SQLException e) {
+                replica.healthy = false;
+            }
+        }
+        return this.primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("Реплики и основная база используют учётные данные из конфигурации");
+    }
+
+    private Replica nextHealthy() {
+        int size = this.replicas.size();
+        int start = Math.floorMod(this.next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = this.replicas.get((start + i) % size);
+            if (replica.healthy)
+                return replica;
+        }
+        return null;
+    }
+
+    void checkHealth() {
+        for (Replica replica : this.replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                replica.healthy = connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+            } catch (SQLException e) {
+                replica.healthy = false;
+            }
+        }
+    }
+
+    /**
+     * Останавливает проверки и закрывает пулы реплик; основной пул принадлежит вызывающему.
+     */
+    @Override
+    public void close() throws Exception {
+        this.healthChecks.shutdownNow();
+        for (Replica replica : this.replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable)
+                closeable.close();
+        }
+    }
+
+    private static final class Replica {
+
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+    }
+}
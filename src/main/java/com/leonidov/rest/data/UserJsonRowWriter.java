@@ -0,0 +1,92 @@
+package com.leonidov.rest.data;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.leonidov.rest.model.UserField;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Пишет текущую строку {@link ResultSet} JSON-объектом в том же виде, что Jackson пишет
+ * {@code User} или {@code UserProjection}, но без них: колонки идут по позициям {@code fields},
+ * имена полей подготовлены заранее, строки H2 передаются генератору как есть,
+ * а id форматируется в переиспользуемый буфер. На строку остаётся один {@link UUID}.
+ * Генератор может быть и CBOR или Smile: в них id, как и у Jackson, пишется 16 байтами.
+ * <p>
+ * Один экземпляр на запрос: буфер не потокобезопасен.
+ */
+final class UserJsonRowWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final UserField[] fields;
+    private final SerializableString[] names;
+    private final char[] uuid = new char[36];
+    private final byte[] uuidBytes = new byte[16];
+
+    UserJsonRowWriter(List<UserField> fields) {
+        this.fields = fields.toArray(UserField[]::new);
+        this.names = new SerializableString[this.fields.length];
+        for (int i = 0; i < this.fields.length; i++)
+            this.names[i] = new SerializedString(this.fields[i].jsonName());
+    }
+
+    /**
+     * @return id записанной строки
+     */
+    UUID write(ResultSet rs, JsonGenerator generator) throws SQLException, IOException {
+        UUID id = null;
+        generator.writeStartObject();
+        for (int i = 0; i < this.fields.length; i++) {
+            generator.writeFieldName(this.names[i]);
+            if (this.fields[i] == UserField.ID) {
+                id = rs.getObject(i + 1, UUID.class);
+                writeUuid(id, generator);
+            } else {
+                generator.writeString(rs.getString(i + 1));
+            }
+        }
+        generator.writeEndObject();
+        return id;
+    }
+
+    private void writeUuid(UUID id, JsonGenerator generator) throws IOException {
+        if (id == null) {
+            generator.writeNull();
+            return;
+        }
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        if (generator.canWriteBinaryNatively()) {
+            // так пишет UUIDSerializer
+            for (int i = 0; i < 8; i++) {
+                this.uuidBytes[i] = (byte) (msb >>> (56 - 8 * i));
+                this.uuidBytes[8 + i] = (byte) (lsb >>> (56 - 8 * i));
+            }
+            generator.writeBinary(this.uuidBytes);
+            return;
+        }
+        hex(msb >>> 32, 8, 0);
+        this.uuid[8] = '-';
+        hex(msb >>> 16, 4, 9);
+        this.uuid[13] = '-';
+        hex(msb, 4, 14);
+        this.uuid[18] = '-';
+        hex(lsb >>> 48, 4, 19);
+        this.uuid[23] = '-';
+        hex(lsb, 12, 24);
+        generator.writeString(this.uuid, 0, this.uuid.length);
+    }
+
+    private void hex(long value, int digits, int offset) {
+        for (int i = digits - 1; i >= 0; i--) {
+            this.uuid[offset + i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+}
@@ -3,15 +3,18 @@ package com.leonidov.rest.exception;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.ObjectError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 @ControllerAdvice
 public class CustomExceptionHandler extends ResponseEntityExceptionHandler {
@@ -25,4 +28,38 @@ public class CustomExceptionHandler extends ResponseEntityExceptionHandler {
         ErrorResponse error = new ErrorResponse("Ошибка валидации", details);
         return new ResponseEntity(error, HttpStatus.BAD_REQUEST);
     }
+
+    @ExceptionHandler(UnknownUserFieldException.class)
+    public ResponseEntity<ErrorResponse> handleUnknownUserField(UnknownUserFieldException ex, Locale locale) {
+        ErrorResponse error = new ErrorResponse("Ошибка", List.of(getMessageSource().getMessage(
+                "user.errors.unknown_field", new Object[]{ex.getField()}, locale)));
+        return ResponseEntity.badRequest().body(error);
+    }
+
+    @ExceptionHandler(InvalidSearchRequestException.class)
+    public ResponseEntity<ErrorResponse> handleInvalidSearchRequest(InvalidSearchRequestException ex, Locale locale) {
+        ErrorResponse error = new ErrorResponse("Ошибка", List.of(getMessageSource().getMessage(
+                ex.getMessageKey(), new Object[0], locale)));
+        return ResponseEntity.badRequest().body(error);
+    }
+
+    @ExceptionHandler(PasswordHashingRejectedException.class)
+    public ResponseEntity<ErrorResponse> handlePasswordHashingRejected(Locale locale) {
+        ErrorResponse error = new ErrorResponse("Ошибка", List.of(getMessageSource().getMessage(
+                "user.errors.password_hashing_overloaded", new Object[0], locale)));
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(error);
+    }
+
+    @ExceptionHandler(UserQueryRejectedException.class)
+    public ResponseEntity<ErrorResponse> handleUserQueryRejected(Locale locale) {
+        ErrorResponse error = new ErrorResponse("Ошибка", List.of(getMessageSource().getMessage(
+                "user.errors.queries_overloaded", new Object[0], locale)));
+        // выгрузка объявляет только NDJSON, а ошибка всегда пишется JSON
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(error);
+    }
 }
@@ -0,0 +1,18 @@
+package com.leonidov.rest.exception;
+
+/**
+ * Некорректный запрос поиска, причина описана ключом сообщения из messages.properties.
+ */
+public class InvalidSearchRequestException extends RuntimeException {
+
+    private final String messageKey;
+
+    public InvalidSearchRequestException(String messageKey) {
+        super(messageKey);
+        this.messageKey = messageKey;
+    }
+
+    public String getMessageKey() {
+        return messageKey;
+    }
+}
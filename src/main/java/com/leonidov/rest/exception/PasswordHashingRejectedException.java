@@ -0,0 +1,8 @@
+package com.leonidov.rest.exception;
+
+public class PasswordHashingRejectedException extends RuntimeException {
+
+    public PasswordHashingRejectedException(Throwable cause) {
+        super("Очередь хэширования паролей переполнена", cause);
+    }
+}
@@ -0,0 +1,15 @@
+package com.leonidov.rest.exception;
+
+public class UnknownUserFieldException extends RuntimeException {
+
+    private final String field;
+
+    public UnknownUserFieldException(String field) {
+        super("Неизвестное поле пользователя: " + field);
+        this.field = field;
+    }
+
+    public String getField() {
+        return field;
+    }
+}
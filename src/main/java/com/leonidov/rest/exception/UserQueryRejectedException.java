@@ -0,0 +1,12 @@
+package com.leonidov.rest.exception;
+
+public class UserQueryRejectedException extends RuntimeException {
+
+    public UserQueryRejectedException(Throwable cause) {
+        super("Очередь запросов к пользователям переполнена", cause);
+    }
+
+    public UserQueryRejectedException(String message) {
+        super(message);
+    }
+}
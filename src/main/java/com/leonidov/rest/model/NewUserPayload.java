@@ -1,6 +1,7 @@
 package com.leonidov.rest.model;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Size;
 
 public record NewUserPayload(@NotBlank(message = "Поле name не должно быть пустым")
@@ -10,5 +11,8 @@ public record NewUserPayload(@NotBlank(message = "Поле name не должн
                              @NotBlank(message = "Поле username не должно быть пустым")
                              @Size(min = 0, max = 32, message = "Длина поля username должно быть не более 32 символов") String username,
                              @NotBlank(message = "Поле password не должно быть пустым")
-                             @Size(min = 8, max = 32, message = "Пароль должен иметь длину от 8 до 32 символов") String password) {
+                             @Size(max = 32, message = "Пароль должен иметь длину не более 32 символов")
+                             // правило прежнего CHECK length(trim(c_password)) > 8: в колонке теперь хэш, проверять там нечего
+                             @Pattern(regexp = "(?s)\\s*\\S.{7,}\\S\\s*",
+                                     message = "Пароль без пробелов по краям должен быть длиннее 8 символов") String password) {
 }
@@ -0,0 +1,42 @@
+package com.leonidov.rest.model;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UUIDv7 (RFC 9562): 48 бит миллисекунд Unix-времени, затем 12-битный счётчик внутри миллисекунды
+ * и 62 случайных бита. Время и счётчик хранятся в одном {@link AtomicLong} и продвигаются CAS-ом,
+ * поэтому id строго растут во всех потоках без блокировок. Если за миллисекунду выдано больше 4096 id,
+ * переполнение счётчика сдвигает время вперёд, и id продолжают расти.
+ * <p>
+ * Случайная часть берётся из {@link ThreadLocalRandom}: id не секрет, а общий {@code SecureRandom}
+ * {@link UUID#randomUUID()} — точка конкуренции потоков.
+ */
+final class TimeOrderedUuidGenerator implements UserIdGenerator {
+
+    static final TimeOrderedUuidGenerator INSTANCE = new TimeOrderedUuidGenerator();
+
+    private static final int COUNTER_BITS = 12;
+    private static final long VERSION_7 = 0x7000L;
+    private static final long VARIANT_RFC = 0x8000_0000_0000_0000L;
+    private static final long RANDOM_BITS = 0x3FFF_FFFF_FFFF_FFFFL;
+
+    // миллисекунды << 12 | счётчик последнего выданного id
+    private final AtomicLong last = new AtomicLong();
+
+    private TimeOrderedUuidGenerator() {
+    }
+
+    @Override
+    public UUID nextId() {
+        long now = System.currentTimeMillis() << COUNTER_BITS;
+        long stamp = this.last.updateAndGet(previous -> Math.max(now, previous + 1));
+
+        long mostSignificantBits = (stamp >>> COUNTER_BITS) << 16
+                | VERSION_7
+                | (stamp & ((1L << COUNTER_BITS) - 1));
+        long leastSignificantBits = VARIANT_RFC | (ThreadLocalRandom.current().nextLong() & RANDOM_BITS);
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+}
@@ -1,11 +1,22 @@
 package com.leonidov.rest.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.util.UUID;
 
 
-public record User(UUID id, String name, String surname, String username, String password) {
+/**
+ * @param version значение из seq_users_version, присвоенное строке при последней записи;
+ *                0 у ещё не сохранённого пользователя
+ */
+public record User(UUID id, String name, String surname, String username,
+                   @JsonIgnore String passwordHash, @JsonIgnore long version) {
+
+    public User(UUID id, String name, String surname, String username, String passwordHash) {
+        this(id, name, surname, username, passwordHash, 0);
+    }
 
-    public User(String name, String surname, String username, String password) {
-        this(UUID.randomUUID(), name, surname, username, password);
+    public User(String name, String surname, String username, String passwordHash) {
+        this(UserIdGenerator.timeOrdered().nextId(), name, surname, username, passwordHash);
     }
 }
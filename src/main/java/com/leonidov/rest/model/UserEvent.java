@@ -0,0 +1,21 @@
+package com.leonidov.rest.model;
+
+import java.util.UUID;
+
+/**
+ * Изменение пользователя в потоке событий.
+ *
+ * @param sequence номер события, растёт на единицу с каждым событием с момента запуска приложения
+ * @param user     состояние после записи; {@code null} у {@link Type#DELETED} и {@link Type#RESET}
+ */
+public record UserEvent(long sequence, Type type, UUID id, User user) {
+
+    public enum Type {
+        CREATED, UPDATED, DELETED,
+        /**
+         * Запрошенные события уже вытеснены из буфера или относятся к прошлому запуску:
+         * клиенту нужно перечитать список целиком и продолжить с номера этого события.
+         */
+        RESET
+    }
+}
@@ -0,0 +1,46 @@
+package com.leonidov.rest.model;
+
+import com.leonidov.rest.exception.UnknownUserFieldException;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Поля пользователя, которые можно запросить через {@code fields=}. Хэш пароля сюда не входит.
+ */
+public enum UserField {
+    ID("id"),
+    NAME("name"),
+    SURNAME("surname"),
+    USERNAME("username");
+
+    private final String jsonName;
+
+    UserField(String jsonName) {
+        this.jsonName = jsonName;
+    }
+
+    public String jsonName() {
+        return jsonName;
+    }
+
+    public static UserField fromJsonName(String jsonName) {
+        for (UserField field : values()) {
+            if (field.jsonName.equals(jsonName))
+                return field;
+        }
+        throw new UnknownUserFieldException(jsonName);
+    }
+
+    /**
+     * Разбирает список имён полей. id добавляется всегда: по нему строится курсор страницы.
+     * Порядок полей фиксированный, как в полном представлении пользователя.
+     */
+    public static List<UserField> parse(Collection<String> jsonNames) {
+        EnumSet<UserField> fields = EnumSet.of(ID);
+        for (String jsonName : jsonNames)
+            fields.add(fromJsonName(jsonName.trim()));
+        return List.copyOf(fields);
+    }
+}
@@ -0,0 +1,26 @@
+package com.leonidov.rest.model;
+
+import java.util.UUID;
+
+/**
+ * Источник id для новых пользователей.
+ */
+@FunctionalInterface
+public interface UserIdGenerator {
+
+    UUID nextId();
+
+    /**
+     * UUIDv7: новые строки дописываются в конец индекса первичного ключа, а не в случайную страницу.
+     */
+    static UserIdGenerator timeOrdered() {
+        return TimeOrderedUuidGenerator.INSTANCE;
+    }
+
+    /**
+     * Случайный UUIDv4, как было до UUIDv7.
+     */
+    static UserIdGenerator random() {
+        return UUID::randomUUID;
+    }
+}
@@ -0,0 +1,11 @@
+package com.leonidov.rest.model;
+
+import java.util.List;
+import java.util.UUID;
+
+public record UserImportResult(int index, Status status, UUID id, List<String> details) {
+
+    public enum Status {
+        CREATED, INVALID, CONFLICT
+    }
+}
@@ -0,0 +1,7 @@
+package com.leonidov.rest.model;
+
+import java.util.List;
+import java.util.UUID;
+
+public record UserPage<T>(List<T> users, UUID nextCursor) {
+}
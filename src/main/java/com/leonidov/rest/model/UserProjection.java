@@ -0,0 +1,71 @@
+package com.leonidov.rest.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Пользователь, у которого прочитаны только выбранные поля. Значения лежат в массиве в порядке {@code fields},
+ * первым всегда идёт id.
+ */
+@JsonSerialize(using = UserProjection.Serializer.class)
+public record UserProjection(List<UserField> fields, Object[] values) {
+
+    public UUID id() {
+        return (UUID) values[0];
+    }
+
+    public static UserProjection of(User user, List<UserField> fields) {
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = switch (fields.get(i)) {
+                case ID -> user.id();
+                case NAME -> user.name();
+                case SURNAME -> user.surname();
+                case USERNAME -> user.username();
+            };
+        }
+        return new UserProjection(fields, values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof UserProjection that
+                && fields.equals(that.fields) && Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fields, Arrays.hashCode(values));
+    }
+
+    @Override
+    public String toString() {
+        return "UserProjection" + fields + Arrays.toString(values);
+    }
+
+    public static class Serializer extends StdSerializer<UserProjection> {
+
+        public Serializer() {
+            super(UserProjection.class);
+        }
+
+        @Override
+        public void serialize(UserProjection projection, JsonGenerator generator,
+                              SerializerProvider provider) throws IOException {
+            generator.writeStartObject(projection);
+            for (int i = 0; i < projection.values.length; i++) {
+                generator.writeFieldName(projection.fields.get(i).jsonName());
+                provider.defaultSerializeValue(projection.values[i], generator);
+            }
+            generator.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+package com.leonidov.rest.model;
+
+public record UserSearchHit(User user, UserSearchPosition position) {
+}
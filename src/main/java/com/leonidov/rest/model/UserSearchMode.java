@@ -0,0 +1,25 @@
+package com.leonidov.rest.model;
+
+import com.leonidov.rest.exception.InvalidSearchRequestException;
+
+/**
+ * Режим поиска из {@code mode=}: другие значения отклоняются, а не превращаются молча в поиск по префиксу.
+ */
+public enum UserSearchMode {
+    PREFIX("prefix"),
+    FULLTEXT("fulltext");
+
+    private final String paramName;
+
+    UserSearchMode(String paramName) {
+        this.paramName = paramName;
+    }
+
+    public static UserSearchMode fromParam(String paramName) {
+        for (UserSearchMode mode : values()) {
+            if (mode.paramName.equals(paramName))
+                return mode;
+        }
+        throw new InvalidSearchRequestException("user.errors.search_mode_invalid");
+    }
+}
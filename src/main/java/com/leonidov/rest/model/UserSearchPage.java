@@ -0,0 +1,6 @@
+package com.leonidov.rest.model;
+
+import java.util.List;
+
+public record UserSearchPage(List<User> users, String nextCursor) {
+}
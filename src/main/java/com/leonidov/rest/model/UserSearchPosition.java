@@ -0,0 +1,15 @@
+package com.leonidov.rest.model;
+
+import java.util.UUID;
+
+/**
+ * Место пользователя в выдаче поиска по префиксу: сначала совпадения по username (rank 0),
+ * затем по имени (1) и по фамилии (2), внутри ранга по совпавшему значению в нижнем регистре и id.
+ */
+public record UserSearchPosition(int rank, String key, UUID id) {
+
+    /**
+     * Число рангов: rank лежит в [0, RANKS).
+     */
+    public static final int RANKS = 3;
+}
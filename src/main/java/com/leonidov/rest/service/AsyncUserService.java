@@ -0,0 +1,35 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserPage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Неблокирующий вариант чтения из {@link UserService}: запросы выполняются на отдельном ограниченном пуле,
+ * вызывающий поток сразу получает future. При переполнении пула future завершается
+ * с {@link com.leonidov.rest.exception.UserQueryRejectedException}.
+ */
+public interface AsyncUserService {
+
+    CompletableFuture<List<User>> findAll();
+    CompletableFuture<UserPage<User>> findPage(UUID after, int limit);
+    CompletableFuture<Optional<User>> findById(UUID id);
+    CompletableFuture<Map<UUID, User>> findAllById(Collection<UUID> ids);
+    CompletableFuture<Optional<User>> findByUsername(String username);
+
+    /**
+     * Все пользователи одним курсором. Строки читаются из базы не быстрее, чем подписчик их запрашивает;
+     * после cancel чтение прекращается. Публикатор читается одним подписчиком.
+     *
+     * @throws com.leonidov.rest.exception.UserQueryRejectedException если уже идёт max-exports выгрузок
+     */
+    Flow.Publisher<User> streamAll();
+
+}
@@ -0,0 +1,153 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.DataSourceRouting;
+import com.leonidov.rest.exception.UserQueryRejectedException;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserPage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Выполняет запросы {@link UserService} на собственном пуле: threads потоков (по умолчанию столько же,
+ * сколько соединений у Hikari) и очередь queue-capacity задач. Сверх этого задачи сразу отклоняются,
+ * поэтому медленная база не копит бесконечную очередь, а клиенты получают 503.
+ * <p>
+ * Выгрузка занимает поток пула и соединение, пока клиент её читает, поэтому одновременно их идёт
+ * не больше max-exports (по умолчанию 2): остальные потоки остаются коротким запросам.
+ */
+@Service
+public class AsyncUserServiceImpl implements AsyncUserService, DisposableBean {
+
+    static final int STREAM_BUFFER_SIZE = Flow.defaultBufferSize();
+    private static final long STREAM_STALL_TIMEOUT_SECONDS = 60;
+
+    private final UserService userService;
+    private final ThreadPoolExecutor executor;
+    private final Semaphore exports;
+
+    public AsyncUserServiceImpl(UserService userService,
+                                MeterRegistry meterRegistry,
+                                @Value("${users.async.threads:10}") int threads,
+                                @Value("${users.async.queue-capacity:256}") int queueCapacity,
+                                @Value("${users.async.max-exports:2}") int maxExports) {
+        this.userService = userService;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("user-queries-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.exports = new Semaphore(maxExports);
+        new ExecutorServiceMetrics(this.executor, "user-queries", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    @Override
+    public CompletableFuture<List<User>> findAll() {
+        return supply(this.userService::findAll);
+    }
+
+    @Override
+    public CompletableFuture<UserPage<User>> findPage(UUID after, int limit) {
+        return supply(() -> this.userService.findPage(after, limit));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> findById(UUID id) {
+        return supply(() -> this.userService.findById(id));
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, User>> findAllById(Collection<UUID> ids) {
+        return supply(() -> this.userService.findAllById(ids));
+    }
+
+    @Override
+    public CompletableFuture<Optional<User>> findByUsername(String username) {
+        return supply(() -> this.userService.findByUsername(username));
+    }
+
+    /**
+     * Курсор читается в потоке пула и передаёт строки через {@link SubmissionPublisher} с буфером
+     * {@link #STREAM_BUFFER_SIZE}: когда буфер полон, чтение ждёт запроса от подписчика.
+     * Доставка идёт в том потоке, который её вызвал (читающем или запрашивающем), без отдельного пула.
+     * <p>
+     * Место выгрузки занимается сразу, чтобы отказ пришёл до того, как ответ начат, и освобождается,
+     * когда чтение курсора закончилось.
+     */
+    @Override
+    public Flow.Publisher<User> streamAll() {
+        if (!this.exports.tryAcquire())
+            throw new UserQueryRejectedException("Превышено число одновременных выгрузок пользователей");
+
+        AtomicBoolean subscribed = new AtomicBoolean();
+        return subscriber -> {
+            SubmissionPublisher<User> publisher = new SubmissionPublisher<>(Runnable::run, STREAM_BUFFER_SIZE);
+            publisher.subscribe(subscriber);
+            if (!subscribed.compareAndSet(false, true)) {
+                publisher.closeExceptionally(new IllegalStateException("Выгрузку можно прочитать только один раз"));
+                return;
+            }
+            try {
+                Supplier<Void> publish = DataSourceRouting.inCurrentScope(() -> {
+                    publish(publisher);
+                    return null;
+                });
+                this.executor.execute(() -> {
+                    try {
+                        publish.get();
+                    } finally {
+                        this.exports.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.exports.release();
+                publisher.closeExceptionally(new UserQueryRejectedException(e));
+            }
+        };
+    }
+
+    private void publish(SubmissionPublisher<User> publisher) {
+        try {
+            this.userService.streamAll(user -> {
+                int lag = publisher.offer(user, STREAM_STALL_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+                        (subscriber, dropped) -> false);
+                if (publisher.getNumberOfSubscribers() == 0)
+                    throw new CancellationException();
+                if (lag < 0)
+                    throw new IllegalStateException("Подписчик не запрашивал данные "
+                            + STREAM_STALL_TIMEOUT_SECONDS + " с");
+            });
+            publisher.close();
+        } catch (CancellationException e) {
+            // подписчик отменил подписку, дочитывать курсор незачем
+            publisher.close();
+        } catch (RuntimeException e) {
+            publisher.closeExceptionally(e);
+        }
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> query) {
+        try {
+            // маршрут запроса (например, основная база сразу после записи клиента) переходит в поток пула
+            return CompletableFuture.supplyAsync(DataSourceRouting.inCurrentScope(query), this.executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new UserQueryRejectedException(e));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+}
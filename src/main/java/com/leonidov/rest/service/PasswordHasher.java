@@ -0,0 +1,88 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.exception.PasswordHashingRejectedException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Хэширует пароли на отдельном ограниченном пуле, а не на потоках Tomcat.
+ * Когда и потоки, и очередь заняты, новые задачи сразу отклоняются
+ * ({@link PasswordHashingRejectedException}, 503), поэтому поток регистраций может занять
+ * не больше threads + queue-capacity потоков запросов, остальные продолжают обслуживать чтение.
+ */
+@Component
+public class PasswordHasher implements DisposableBean {
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder,
+                          MeterRegistry meterRegistry,
+                          @Value("${users.password.hashing.threads:0}") int threads,
+                          @Value("${users.password.hashing.queue-capacity:64}") int queueCapacity) {
+        this.passwordEncoder = passwordEncoder;
+        this.threads = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("password-hashing-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        new ExecutorServiceMetrics(this.executor, "password-hashing", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    public String hash(String rawPassword) {
+        return await(submit(() -> this.passwordEncoder.encode(rawPassword)));
+    }
+
+    /**
+     * Хэширует пачку паролей, занимая не больше threads мест в пуле.
+     */
+    public List<String> hashAll(List<String> rawPasswords) {
+        int slices = Math.min(this.threads, rawPasswords.size());
+        List<Future<List<String>>> futures = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            List<String> part = rawPasswords.subList(
+                    rawPasswords.size() * slice / slices, rawPasswords.size() * (slice + 1) / slices);
+            futures.add(submit(() -> part.stream().map(this.passwordEncoder::encode).toList()));
+        }
+
+        List<String> hashes = new ArrayList<>(rawPasswords.size());
+        for (Future<List<String>> future : futures)
+            hashes.addAll(await(future));
+        return hashes;
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        try {
+            return this.executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new PasswordHashingRejectedException(e);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.shutdownNow();
+    }
+}
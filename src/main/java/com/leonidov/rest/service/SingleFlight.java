@@ -0,0 +1,52 @@
+package com.leonidov.rest.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Объединяет одновременные загрузки одного ключа: первый поток выполняет запрос,
+ * остальные ждут его {@link CompletableFuture} и получают тот же результат или ту же ошибку.
+ * <p>
+ * К загрузке присоединяются только потоки с тем же поколением кэша, что и у её начала.
+ * Запрос, начатый до записи, может вернуть старые данные, и после записи нужен новый запрос.
+ */
+final class SingleFlight<K, V> {
+
+    private record Flight<V>(long generation, CompletableFuture<V> result) {
+    }
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    V load(K key, long generation, Supplier<V> loader) {
+        Flight<V> own = new Flight<>(generation, new CompletableFuture<>());
+        Flight<V> flight = inFlight.compute(key, (k, current) ->
+                current != null && current.generation() == generation ? current : own);
+        if (flight != own)
+            return await(flight.result());
+
+        try {
+            V value = loader.get();
+            own.result().complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            own.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.User;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш пользователей по id и по username. Размер, время жизни и статистика
+ * задаются в spring.cache.caffeine.spec, счётчики попаданий, промахов и вытеснений
+ * доступны в /actuator/metrics/cache.gets и /actuator/metrics/cache.evictions.
+ * <p>
+ * Индекс по username хранит только id, поэтому устаревшая запись индекса
+ * после изменения или удаления пользователя превращается в промах.
+ */
+@Component
+public class UserCache {
+
+    static final String USERS_BY_ID = "users-by-id";
+    static final String USER_IDS_BY_USERNAME = "users-by-username";
+
+    private final Cache usersById;
+    private final Cache userIdsByUsername;
+    private final AtomicLong generation = new AtomicLong();
+
+    public UserCache(CacheManager cacheManager) {
+        this.usersById = Objects.requireNonNull(cacheManager.getCache(USERS_BY_ID));
+        this.userIdsByUsername = Objects.requireNonNull(cacheManager.getCache(USER_IDS_BY_USERNAME));
+    }
+
+    public Optional<User> getById(UUID id) {
+        return Optional.ofNullable(this.usersById.get(id, User.class));
+    }
+
+    public Optional<User> getByUsername(String username) {
+        UUID id = this.userIdsByUsername.get(username, UUID.class);
+        if (id == null)
+            return Optional.empty();
+
+        return getById(id).filter(user -> user.username().equals(username));
+    }
+
+    /**
+     * Номер поколения, который нужно запомнить перед чтением из базы и передать в {@link #put}.
+     */
+    public long generation() {
+        return this.generation.get();
+    }
+
+    /**
+     * Кладёт прочитанного из базы пользователя, если с начала чтения не было изменений.
+     */
+    public void put(User user, long readGeneration) {
+        this.usersById.put(user.id(), user);
+        this.userIdsByUsername.put(user.username(), user.id());
+
+        // запись могла пройти между чтением из базы и put
+        if (this.generation.get() != readGeneration)
+            this.usersById.evict(user.id());
+    }
+
+    public void evict(UUID id) {
+        this.generation.incrementAndGet();
+        this.usersById.evict(id);
+    }
+
+    public void evict(UUID id, String username) {
+        evict(id);
+        this.userIdsByUsername.evict(username);
+    }
+}
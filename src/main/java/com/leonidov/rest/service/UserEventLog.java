@@ -0,0 +1,321 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Журнал изменений пользователей в памяти: события нумеруются подряд, последние buffer-size из них
+ * хранятся в кольцевом буфере, чтобы переподключившийся подписчик продолжил с того, что успел получить.
+ * <p>
+ * Публикация не ждёт подписчиков: у каждого своя очередь на buffer-size событий, которую разбирают
+ * потоки доставки. Подписчик, отставший на весь буфер, отключается и при переподключении
+ * дочитывает пропущенное из буфера. Нумерация начинается заново при каждом запуске,
+ * и у каждого экземпляра приложения она своя.
+ * <p>
+ * Отправка подписчику может заблокироваться на медленном клиенте. Подписчик, чей вызов длится дольше
+ * send-timeout, отключается: его поток доставки прерывается, а пока вызов не вернулся,
+ * пул получает вместо этого потока ещё один, чтобы остальные подписчики не ждали.
+ */
+@Component
+public class UserEventLog implements DisposableBean {
+
+    private final UserEvent[] ring;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private final ThreadPoolExecutor delivery;
+    private final ScheduledExecutorService heartbeats;
+    private final Counter overflows;
+    private final Counter stalls;
+    private final long sendTimeoutNanos;
+    // пишется под блокировкой журнала, читается без неё
+    private volatile long lastSequence;
+
+    public UserEventLog(MeterRegistry meterRegistry,
+                        @Value("${users.events.buffer-size:10000}") int bufferSize,
+                        @Value("${users.events.delivery-threads:2}") int deliveryThreads,
+                        @Value("${users.events.heartbeat-interval:15s}") Duration heartbeatInterval,
+                        @Value("${users.events.send-timeout:10s}") Duration sendTimeout) {
+        this.ring = new UserEvent[bufferSize];
+        this.delivery = new ThreadPoolExecutor(deliveryThreads, deliveryThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("user-events-"));
+        new ExecutorServiceMetrics(this.delivery, "user-events", Tags.empty()).bindTo(meterRegistry);
+        Gauge.builder("users.events.subscribers", this, UserEventLog::subscriberCount)
+                .description("Подключённые подписчики на изменения пользователей")
+                .register(meterRegistry);
+        this.overflows = Counter.builder("users.events.overflows")
+                .description("Подписчики, отключённые из-за переполнения очереди")
+                .register(meterRegistry);
+        this.stalls = Counter.builder("users.events.stalls")
+                .description("Подписчики, отключённые из-за отправки дольше send-timeout")
+                .register(meterRegistry);
+        this.sendTimeoutNanos = sendTimeout.toNanos();
+
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("user-events-heartbeat-"));
+        long interval = heartbeatInterval.toMillis();
+        this.heartbeats.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        long watchdogInterval = Math.max(1, sendTimeout.toMillis() / 2);
+        this.heartbeats.scheduleWithFixedDelay(this::checkStalled, watchdogInterval, watchdogInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public UserEvent publish(UserEvent.Type type, UUID id, User user) {
+        synchronized (this) {
+            UserEvent event = new UserEvent(++this.lastSequence, type, id, user);
+            this.ring[index(event.sequence())] = event;
+            // под той же блокировкой, что и подписка: подписчик не пропустит событие между повтором и живым потоком
+            for (Subscription subscription : List.copyOf(this.subscriptions))
+                subscription.offer(event);
+            return event;
+        }
+    }
+
+    /**
+     * Номер последнего события; растёт с каждой записью, поэтому годится и как признак изменения данных.
+     */
+    public long lastSequence() {
+        return this.lastSequence;
+    }
+
+    /**
+     * Подписывает на события после {@code lastEventId}, начиная с тех, что ещё лежат в буфере.
+     * Если продолжить нельзя (номер вытеснен из буфера или больше последнего, то есть выдан до перезапуска),
+     * первым приходит {@link UserEvent.Type#RESET} с номером последнего события.
+     *
+     * @param lastEventId номер последнего полученного события; {@code null} — только новые события
+     */
+    public Subscription subscribe(Long lastEventId, UserEventSubscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        synchronized (this) {
+            if (lastEventId != null && lastEventId != this.lastSequence) {
+                long oldest = Math.max(1, this.lastSequence - this.ring.length + 1);
+                if (lastEventId < oldest - 1 || lastEventId > this.lastSequence) {
+                    subscription.offer(new UserEvent(this.lastSequence, UserEvent.Type.RESET, null, null));
+                } else {
+                    for (long sequence = lastEventId + 1; sequence <= this.lastSequence; sequence++)
+                        subscription.offer(this.ring[index(sequence)]);
+                }
+            }
+            this.subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence % this.ring.length);
+    }
+
+    private synchronized int subscriberCount() {
+        return this.subscriptions.size();
+    }
+
+    private synchronized void remove(Subscription subscription) {
+        this.subscriptions.remove(subscription);
+    }
+
+    void heartbeat() {
+        List<Subscription> current;
+        synchronized (this) {
+            current = List.copyOf(this.subscriptions);
+        }
+        for (Subscription subscription : current) {
+            subscription.heartbeatDue.set(true);
+            subscription.schedule();
+        }
+    }
+
+    void checkStalled() {
+        List<Subscription> current;
+        synchronized (this) {
+            current = List.copyOf(this.subscriptions);
+        }
+        long now = System.nanoTime();
+        for (Subscription subscription : current)
+            subscription.stallIfSendingSince(now - this.sendTimeoutNanos);
+    }
+
+    /**
+     * Меняет число потоков доставки на {@code delta}: зависший поток замещается новым и возвращается в счёт,
+     * когда его вызов наконец закончится.
+     */
+    private void resizeDelivery(int delta) {
+        synchronized (this.delivery) {
+            if (delta > 0) {
+                this.delivery.setMaximumPoolSize(this.delivery.getMaximumPoolSize() + delta);
+                this.delivery.setCorePoolSize(this.delivery.getCorePoolSize() + delta);
+            } else {
+                this.delivery.setCorePoolSize(this.delivery.getCorePoolSize() + delta);
+                this.delivery.setMaximumPoolSize(this.delivery.getMaximumPoolSize() + delta);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.heartbeats.shutdownNow();
+        List<Subscription> current;
+        synchronized (this) {
+            current = List.copyOf(this.subscriptions);
+        }
+        current.forEach(Subscription::end);
+        this.delivery.shutdown();
+    }
+
+    /**
+     * Получатель событий. Все методы вызываются по очереди из потоков доставки, никогда одновременно.
+     * Исключение из {@link #onEvent} или {@link #onHeartbeat} отключает подписчика.
+     */
+    public interface UserEventSubscriber {
+
+        /**
+         * Вызов дольше send-timeout отключает подписчика и прерывает поток доставки.
+         */
+        void onEvent(UserEvent event) throws IOException;
+
+        /**
+         * Ничего не произошло за heartbeat-interval: даёт подписчику отправить что-нибудь по соединению,
+         * чтобы прокси его не закрыли, а ушедший клиент обнаружился.
+         */
+        void onHeartbeat() throws IOException;
+
+        /**
+         * Подписку закрыл журнал: подписчик отстал на весь буфер, упал или приложение останавливается.
+         */
+        void onClose();
+    }
+
+    public final class Subscription {
+
+        private final UserEventSubscriber subscriber;
+        private final BlockingQueue<UserEvent> queue = new LinkedBlockingQueue<>(ring.length);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+        private final AtomicBoolean closeNotified = new AtomicBoolean();
+        private volatile boolean closed;
+        // под монитором подписки: поток, который сейчас вызывает подписчика, и с какого момента
+        private Thread sendingThread;
+        private long sendingSince;
+        private boolean stalled;
+
+        private Subscription(UserEventSubscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Отписывает без вызова {@link UserEventSubscriber#onClose()}, например когда клиент сам закрыл соединение.
+         */
+        public void close() {
+            this.closeNotified.set(true);
+            this.closed = true;
+            remove(this);
+        }
+
+        private void offer(UserEvent event) {
+            if (this.closed)
+                return;
+            if (this.queue.offer(event)) {
+                schedule();
+            } else {
+                overflows.increment();
+                end();
+            }
+        }
+
+        private void end() {
+            this.closed = true;
+            remove(this);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!this.scheduled.compareAndSet(false, true))
+                return;
+            try {
+                delivery.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // приложение останавливается
+                this.scheduled.set(false);
+            }
+        }
+
+        private void drain() {
+            try {
+                UserEvent event;
+                while (!this.closed && (event = this.queue.poll()) != null) {
+                    UserEvent next = event;
+                    send(() -> this.subscriber.onEvent(next));
+                }
+                if (!this.closed && this.heartbeatDue.getAndSet(false))
+                    send(this.subscriber::onHeartbeat);
+            } catch (IOException | RuntimeException e) {
+                this.closed = true;
+                remove(this);
+            } finally {
+                this.scheduled.set(false);
+            }
+
+            if (this.closed) {
+                this.queue.clear();
+                if (this.closeNotified.compareAndSet(false, true))
+                    this.subscriber.onClose();
+            } else if (!this.queue.isEmpty() || this.heartbeatDue.get()) {
+                schedule();
+            }
+        }
+
+        private void send(Send send) throws IOException {
+            synchronized (this) {
+                this.sendingThread = Thread.currentThread();
+                this.sendingSince = System.nanoTime();
+            }
+            try {
+                send.run();
+            } finally {
+                boolean replaced;
+                synchronized (this) {
+                    this.sendingThread = null;
+                    replaced = this.stalled;
+                    // прерывание предназначалось этому вызову, а не следующей задаче потока
+                    if (replaced)
+                        Thread.interrupted();
+                }
+                if (replaced)
+                    resizeDelivery(-1);
+            }
+        }
+
+        private void stallIfSendingSince(long deadline) {
+            synchronized (this) {
+                if (this.sendingThread == null || this.stalled || this.sendingSince - deadline > 0)
+                    return;
+                this.stalled = true;
+                this.closed = true;
+                this.sendingThread.interrupt();
+                // под монитором подписки: send вернёт поток в счёт только после этого
+                resizeDelivery(1);
+            }
+            stalls.increment();
+            remove(this);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Send {
+
+        void run() throws IOException;
+    }
+}
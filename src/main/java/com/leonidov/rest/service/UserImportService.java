@@ -0,0 +1,13 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.NewUserPayload;
+import com.leonidov.rest.model.UserImportResult;
+
+import java.util.Iterator;
+import java.util.List;
+
+public interface UserImportService {
+
+    List<UserImportResult> importUsers(Iterator<NewUserPayload> payloads);
+
+}
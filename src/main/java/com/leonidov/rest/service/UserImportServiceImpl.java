@@ -0,0 +1,173 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepository;
+import com.leonidov.rest.model.NewUserPayload;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserEvent;
+import com.leonidov.rest.model.UserIdGenerator;
+import com.leonidov.rest.model.UserImportResult;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.util.*;
+
+@Service
+public class UserImportServiceImpl implements UserImportService {
+
+    // параллельные импорты могут раз за разом занимать username пачки между проверкой и вставкой
+    static final int MAX_CHUNK_ATTEMPTS = 3;
+
+    private final JdbcOperationsUserRepository jdbcOperationsUserRepository;
+    private final Validator validator;
+    private final MessageSource messageSource;
+    private final TransactionOperations transactionOperations;
+    private final PasswordHasher passwordHasher;
+    private final UserEventLog userEventLog;
+    private final UserIdGenerator userIdGenerator;
+    private final int chunkSize;
+
+    public UserImportServiceImpl(JdbcOperationsUserRepository jdbcOperationsUserRepository,
+                                 Validator validator,
+                                 MessageSource messageSource,
+                                 TransactionOperations transactionOperations,
+                                 PasswordHasher passwordHasher,
+                                 UserEventLog userEventLog,
+                                 UserIdGenerator userIdGenerator,
+                                 @Value("${users.import.chunk-size:500}") int chunkSize) {
+        this.jdbcOperationsUserRepository = jdbcOperationsUserRepository;
+        this.validator = validator;
+        this.messageSource = messageSource;
+        this.transactionOperations = transactionOperations;
+        this.passwordHasher = passwordHasher;
+        this.userEventLog = userEventLog;
+        this.userIdGenerator = userIdGenerator;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public List<UserImportResult> importUsers(Iterator<NewUserPayload> payloads) {
+        List<UserImportResult> results = new ArrayList<>();
+        Map<Integer, User> chunk = new LinkedHashMap<>();
+
+        for (int index = 0; ; index++) {
+            NewUserPayload payload;
+            try {
+                if (!payloads.hasNext())
+                    break;
+                payload = payloads.next();
+            } catch (RuntimeException e) {
+                // дальше разобрать поток нельзя, уже принятые записи сохраняем
+                results.add(new UserImportResult(index, UserImportResult.Status.INVALID, null,
+                        List.of(String.valueOf(e.getMessage()).lines().findFirst().orElse(""))));
+                break;
+            }
+
+            List<String> violations = validate(payload);
+            if (!violations.isEmpty()) {
+                results.add(new UserImportResult(index, UserImportResult.Status.INVALID, null, violations));
+                continue;
+            }
+
+            chunk.put(index, new User(userIdGenerator.nextId(), payload.name(), payload.surname(),
+                    payload.username(), payload.password()));
+            if (chunk.size() == chunkSize) {
+                results.addAll(importChunk(chunk));
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty())
+            results.addAll(importChunk(chunk));
+
+        results.sort(Comparator.comparingInt(UserImportResult::index));
+        return results;
+    }
+
+    private List<String> validate(NewUserPayload payload) {
+        if (payload == null)
+            return List.of("Пустая запись");
+
+        return validator.validate(payload).stream()
+                .map(ConstraintViolation::getMessage)
+                .toList();
+    }
+
+    private List<UserImportResult> importChunk(Map<Integer, User> chunk) {
+        hashPasswords(chunk);
+        List<UserImportResult> results = null;
+        for (int attempt = 1; results == null && attempt <= MAX_CHUNK_ATTEMPTS; attempt++) {
+            try {
+                results = tryImportChunk(chunk);
+            } catch (DuplicateKeyException e) {
+                // username заняли параллельно, повторная проверка увидит их как конфликты
+            }
+        }
+        if (results == null)
+            results = importOneByOne(chunk);
+
+        // транзакция пачки закоммичена, теперь созданных пользователей можно показать подписчикам
+        for (UserImportResult result : results) {
+            if (result.status() == UserImportResult.Status.CREATED)
+                userEventLog.publish(UserEvent.Type.CREATED, result.id(), chunk.get(result.index()));
+        }
+        return results;
+    }
+
+    // хэшируем до открытия транзакции, чтобы не держать соединение во время bcrypt
+    private void hashPasswords(Map<Integer, User> chunk) {
+        Iterator<String> hashes = passwordHasher.hashAll(
+                chunk.values().stream().map(User::passwordHash).toList()).iterator();
+        chunk.replaceAll((index, user) -> new User(user.id(), user.name(), user.surname(),
+                user.username(), hashes.next()));
+    }
+
+    /**
+     * Пачка так и не вставилась целиком: каждая запись пишется своей транзакцией,
+     * и конфликтом становится только та, чей username действительно занят.
+     */
+    private List<UserImportResult> importOneByOne(Map<Integer, User> chunk) {
+        List<UserImportResult> results = new ArrayList<>(chunk.size());
+        chunk.forEach((index, user) -> {
+            try {
+                results.addAll(tryImportChunk(Map.of(index, user)));
+            } catch (DuplicateKeyException e) {
+                results.add(conflict(index));
+            }
+        });
+        return results;
+    }
+
+    private UserImportResult conflict(int index) {
+        return new UserImportResult(index, UserImportResult.Status.CONFLICT, null,
+                List.of(messageSource.getMessage("user.errors.not_create_is_username_exists",
+                        new Object[0], LocaleContextHolder.getLocale())));
+    }
+
+    private List<UserImportResult> tryImportChunk(Map<Integer, User> chunk) {
+        return transactionOperations.execute(status -> {
+            Set<String> takenUsernames = jdbcOperationsUserRepository.findExistingUsernames(
+                    chunk.values().stream().map(User::username).toList());
+
+            List<UserImportResult> results = new ArrayList<>(chunk.size());
+            List<User> accepted = new ArrayList<>(chunk.size());
+            Set<String> usernames = new HashSet<>(takenUsernames);
+            chunk.forEach((index, user) -> {
+                if (usernames.add(user.username())) {
+                    accepted.add(user);
+                    results.add(new UserImportResult(index, UserImportResult.Status.CREATED, user.id(), List.of()));
+                } else {
+                    results.add(conflict(index));
+                }
+            });
+
+            jdbcOperationsUserRepository.saveAll(accepted);
+            return results;
+        });
+    }
+}
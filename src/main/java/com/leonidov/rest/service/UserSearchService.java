@@ -0,0 +1,10 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.UserSearchPage;
+
+public interface UserSearchService {
+
+    UserSearchPage searchByPrefix(String query, String cursor, int limit);
+    UserSearchPage searchFullText(String query, String cursor, int limit);
+
+}
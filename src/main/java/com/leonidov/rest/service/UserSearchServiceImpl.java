@@ -0,0 +1,89 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepository;
+import com.leonidov.rest.exception.InvalidSearchRequestException;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserSearchHit;
+import com.leonidov.rest.model.UserSearchPage;
+import com.leonidov.rest.model.UserSearchPosition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+@Service
+public class UserSearchServiceImpl implements UserSearchService {
+
+    private final JdbcOperationsUserRepository jdbcOperationsUserRepository;
+    private final boolean fullTextEnabled;
+
+    public UserSearchServiceImpl(JdbcOperationsUserRepository jdbcOperationsUserRepository,
+                                 @Value("${users.search.fulltext.enabled:false}") boolean fullTextEnabled) {
+        this.jdbcOperationsUserRepository = jdbcOperationsUserRepository;
+        this.fullTextEnabled = fullTextEnabled;
+    }
+
+    @Override
+    public UserSearchPage searchByPrefix(String query, String cursor, int limit) {
+        requireQuery(query);
+        UserSearchPosition after = cursor == null ? null : decodePosition(cursor);
+
+        List<UserSearchHit> hits = jdbcOperationsUserRepository.searchByPrefix(query.trim(), after, limit + 1);
+        List<User> users = hits.stream().limit(limit).map(UserSearchHit::user).toList();
+        if (hits.size() <= limit)
+            return new UserSearchPage(users, null);
+
+        return new UserSearchPage(users, encodePosition(hits.get(limit - 1).position()));
+    }
+
+    @Override
+    public UserSearchPage searchFullText(String query, String cursor, int limit) {
+        if (!fullTextEnabled)
+            throw new InvalidSearchRequestException("user.errors.search_fulltext_disabled");
+        requireQuery(query);
+        int offset = cursor == null ? 0 : decodeOffset(cursor);
+
+        List<User> users = jdbcOperationsUserRepository.searchFullText(query.trim(), offset, limit + 1);
+        if (users.size() <= limit)
+            return new UserSearchPage(users, null);
+
+        return new UserSearchPage(List.copyOf(users.subList(0, limit)), String.valueOf(offset + limit));
+    }
+
+    private static void requireQuery(String query) {
+        if (query == null || query.isBlank())
+            throw new InvalidSearchRequestException("user.errors.search_query_blank");
+    }
+
+    // ключ может быть не ASCII, поэтому курсор кодируется в base64url и безопасен для заголовка
+    private static String encodePosition(UserSearchPosition position) {
+        String raw = position.rank() + ":" + position.id() + ":" + position.key();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static UserSearchPosition decodePosition(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":", 3);
+            int rank = Integer.parseInt(parts[0]);
+            if (rank < 0 || rank >= UserSearchPosition.RANKS)
+                throw new InvalidSearchRequestException("user.errors.search_cursor_invalid");
+            return new UserSearchPosition(rank, parts[2], UUID.fromString(parts[1]));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new InvalidSearchRequestException("user.errors.search_cursor_invalid");
+        }
+    }
+
+    private static int decodeOffset(String cursor) {
+        try {
+            int offset = Integer.parseInt(cursor);
+            if (offset >= 0)
+                return offset;
+        } catch (NumberFormatException ignored) {
+            // ниже
+        }
+        throw new InvalidSearchRequestException("user.errors.search_cursor_invalid");
+    }
+}
@@ -1,17 +1,33 @@
 package com.leonidov.rest.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserPage;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public interface UserService {
 
     List<User> findAll();
+    UserPage<User> findPage(UUID after, int limit);
+    void streamAll(Consumer<User> action);
+    UUID writePage(UUID after, int limit, List<UserField> fields, JsonGenerator generator);
+    void writeNdjson(List<UserField> fields, JsonGenerator generator);
     Optional<User> findById(UUID id);
+    Map<UUID, User> findAllById(Collection<UUID> ids);
     Optional<User> findByUsername(String username);
+    Optional<Long> findVersionById(UUID id);
+    String findCollectionVersion();
     void saveOrUpdate(User user);
-    void deleteById(UUID id);
+    boolean update(User user);
+    boolean update(User user, Collection<Long> expectedVersions);
+    boolean deleteById(UUID id);
+    boolean deleteById(UUID id, Collection<Long> expectedVersions);
 
 }
@@ -1,20 +1,44 @@
 package com.leonidov.rest.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.leonidov.rest.data.DataSourceRouting;
 import com.leonidov.rest.data.JdbcOperationsUserRepository;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserEvent;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserPage;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Service
 public class UserServiceImpl implements UserService {
 
     private final JdbcOperationsUserRepository jdbcOperationsUserRepository;
+    private final UserCache userCache;
+    private final UserWriteBatcher userWriteBatcher;
+    private final UserEventLog userEventLog;
+    private final SingleFlight<UUID, Optional<User>> findByIdFlights = new SingleFlight<>();
+    private final SingleFlight<String, Optional<User>> findByUsernameFlights = new SingleFlight<>();
 
-    public UserServiceImpl(JdbcOperationsUserRepository jdbcOperationsUserRepository) {
+    public UserServiceImpl(JdbcOperationsUserRepository jdbcOperationsUserRepository,
+                           UserCache userCache,
+                           ObjectProvider<UserWriteBatcher> userWriteBatcher,
+                           UserEventLog userEventLog) {
         this.jdbcOperationsUserRepository = jdbcOperationsUserRepository;
+        this.userCache = userCache;
+        // включается свойством users.write-batching.enabled, иначе пишем напрямую
+        this.userWriteBatcher = userWriteBatcher.getIfAvailable();
+        this.userEventLog = userEventLog;
     }
 
     @Override
@@ -22,26 +46,161 @@ public class UserServiceImpl implements UserService {
         return jdbcOperationsUserRepository.findAll();
     }
 
+    @Override
+    public UserPage<User> findPage(UUID after, int limit) {
+        // одна лишняя строка показывает, есть ли следующая страница
+        List<User> users = jdbcOperationsUserRepository.findPage(after, limit + 1);
+
+        if (users.size() <= limit)
+            return new UserPage<>(users, null);
+
+        List<User> page = users.subList(0, limit);
+        return new UserPage<>(List.copyOf(page), page.get(limit - 1).id());
+    }
+
+    @Override
+    public void streamAll(Consumer<User> action) {
+        jdbcOperationsUserRepository.streamAll(action);
+    }
+
+    /**
+     * Страница пишется в JSON прямо из ResultSet, без {@link User} и списка; массив открывает вызывающий.
+     *
+     * @param fields {@code null} — пользователи целиком
+     * @return курсор следующей страницы или {@code null}
+     */
+    @Override
+    public UUID writePage(UUID after, int limit, List<UserField> fields, JsonGenerator generator) {
+        return jdbcOperationsUserRepository.writePage(after, limit, fields, generator);
+    }
+
+    @Override
+    public void writeNdjson(List<UserField> fields, JsonGenerator generator) {
+        jdbcOperationsUserRepository.writeNdjson(fields, generator);
+    }
+
+    /**
+     * Промахи кэша читаются из основной базы: строка из отстающей реплики осталась бы в кэше
+     * устаревшей до конца его срока, а не на время отставания.
+     */
     @Override
     public Optional<User> findById(UUID id) {
-        return jdbcOperationsUserRepository.findById(id);
+        Optional<User> cached = userCache.getById(id);
+        if (cached.isPresent())
+            return cached;
+
+        long generation = userCache.generation();
+        return findByIdFlights.load(id, generation, () -> {
+            Optional<User> user = DataSourceRouting.onPrimary(() -> jdbcOperationsUserRepository.findById(id));
+            user.ifPresent(found -> userCache.put(found, generation));
+            return user;
+        });
+    }
+
+    /**
+     * Берёт из кэша всё, что там есть, а остальных пользователей читает из базы одним запросом на пачку id.
+     *
+     * @return найденные пользователи по id; отсутствующих id в результате нет
+     */
+    @Override
+    public Map<UUID, User> findAllById(Collection<UUID> ids) {
+        Map<UUID, User> users = new HashMap<>();
+        Set<UUID> misses = new LinkedHashSet<>();
+        for (UUID id : ids) {
+            if (id == null || users.containsKey(id))
+                continue;
+            userCache.getById(id).ifPresentOrElse(user -> users.put(id, user), () -> misses.add(id));
+        }
+
+        if (!misses.isEmpty()) {
+            long generation = userCache.generation();
+            List<User> found = DataSourceRouting.onPrimary(() -> jdbcOperationsUserRepository.findAllById(misses));
+            for (User user : found) {
+                users.put(user.id(), user);
+                userCache.put(user, generation);
+            }
+        }
+        return users;
     }
 
     @Override
     public Optional<User> findByUsername(String username) {
-        return jdbcOperationsUserRepository.findByUsername(username);
+        Optional<User> cached = userCache.getByUsername(username);
+        if (cached.isPresent())
+            return cached;
+
+        long generation = userCache.generation();
+        return findByUsernameFlights.load(username, generation, () -> {
+            Optional<User> user = DataSourceRouting.onPrimary(() -> jdbcOperationsUserRepository.findByUsername(username));
+            user.ifPresent(found -> userCache.put(found, generation));
+            return user;
+        });
     }
 
+    @Override
+    public Optional<Long> findVersionById(UUID id) {
+        return jdbcOperationsUserRepository.findVersionById(id);
+    }
+
+    @Override
+    public String findCollectionVersion() {
+        return jdbcOperationsUserRepository.findCollectionVersion();
+    }
+
+    /**
+     * Сохраняет нового пользователя: id для него всегда создаёт вызывающий, поэтому событие — {@code CREATED}.
+     * События публикуются после записи, а не внутри транзакции: откатившаяся запись события не даёт.
+     * При пакетной записи кэш сбрасывается и событие публикуется после коммита пачки, даже если вызывающий
+     * не дождался её и получил таймаут.
+     */
     @Override
     public void saveOrUpdate(User user) {
-        if (findById(user.id()).isPresent())
-            jdbcOperationsUserRepository.update(user);
-        else
-            jdbcOperationsUserRepository.save(user);
+        if (userWriteBatcher != null) {
+            userWriteBatcher.upsert(user, () -> created(user));
+        } else {
+            jdbcOperationsUserRepository.upsert(user);
+            created(user);
+        }
+    }
+
+    private void created(User user) {
+        userCache.evict(user.id(), user.username());
+        userEventLog.publish(UserEvent.Type.CREATED, user.id(), user);
+    }
+
+    @Override
+    public boolean update(User user) {
+        boolean updated = jdbcOperationsUserRepository.update(user);
+        userCache.evict(user.id(), user.username());
+        if (updated)
+            userEventLog.publish(UserEvent.Type.UPDATED, user.id(), user);
+        return updated;
+    }
+
+    @Override
+    public boolean update(User user, Collection<Long> expectedVersions) {
+        boolean updated = jdbcOperationsUserRepository.update(user, expectedVersions);
+        userCache.evict(user.id(), user.username());
+        if (updated)
+            userEventLog.publish(UserEvent.Type.UPDATED, user.id(), user);
+        return updated;
+    }
+
+    @Override
+    public boolean deleteById(UUID id) {
+        boolean deleted = jdbcOperationsUserRepository.deleteById(id);
+        userCache.evict(id);
+        if (deleted)
+            userEventLog.publish(UserEvent.Type.DELETED, id, null);
+        return deleted;
     }
 
     @Override
-    public void deleteById(UUID id) {
-        jdbcOperationsUserRepository.deleteById(id);
+    public boolean deleteById(UUID id, Collection<Long> expectedVersions) {
+        boolean deleted = jdbcOperationsUserRepository.deleteById(id, expectedVersions);
+        userCache.evict(id);
+        if (deleted)
+            userEventLog.publish(UserEvent.Type.DELETED, id, null);
+        return deleted;
     }
 }
@@ -0,0 +1,210 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepository;
+import com.leonidov.rest.model.User;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Собирает одиночные upsert-ы из параллельных запросов в пачки и пишет каждую пачку одним
+ * batchUpdate в одной транзакции: вместо коммита на каждую регистрацию получается коммит на пачку.
+ * Пачка уходит, когда набралось max-batch-size записей или прошло max-delay с первой из них;
+ * при max-delay = 0 в пачку попадает то, что накопилось в очереди, пока писалась предыдущая.
+ * <p>
+ * Каждый вызывающий ждёт свою запись и получает свой результат: если пачка откатилась,
+ * её записи повторяются по одной, и исключение (например, {@code DuplicateKeyException}
+ * на занятый username) достаётся только тому, чья запись его вызвала.
+ * Когда очередь переполнена, запись выполняется сразу в потоке вызывающего.
+ * <p>
+ * Вызывающий ждёт не дольше write-timeout: если его запись так и не забрали из очереди, он пишет её сам,
+ * а если пачка с ней ещё пишется, получает {@link QueryTimeoutException}. Любая ошибка при записи пачки,
+ * включая {@link Error}, завершает ожидания всех её записей, и поток записи продолжает работу.
+ * <p>
+ * То, что должно случиться после коммита (сброс кэша, событие), передаётся в {@link #upsert} и выполняется
+ * ровно один раз, когда запись закоммичена, даже если вызывающий к этому времени уже получил таймаут.
+ */
+@Component
+@ConditionalOnProperty(name = "users.write-batching.enabled", havingValue = "true")
+public class UserWriteBatcher implements DisposableBean {
+
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    private final JdbcOperationsUserRepository jdbcOperationsUserRepository;
+    private final TransactionOperations transactionOperations;
+    private final BlockingQueue<PendingWrite> queue;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long writeTimeoutNanos;
+    private final DistributionSummary batchSizes;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public UserWriteBatcher(JdbcOperationsUserRepository jdbcOperationsUserRepository,
+                            TransactionOperations transactionOperations,
+                            MeterRegistry meterRegistry,
+                            @Value("${users.write-batching.max-batch-size:256}") int maxBatchSize,
+                            @Value("${users.write-batching.max-delay:0ms}") Duration maxDelay,
+                            @Value("${users.write-batching.queue-capacity:4096}") int queueCapacity,
+                            @Value("${users.write-batching.write-timeout:30s}") Duration writeTimeout) {
+        this.jdbcOperationsUserRepository = jdbcOperationsUserRepository;
+        this.transactionOperations = transactionOperations;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.writeTimeoutNanos = writeTimeout.toNanos();
+        this.batchSizes = DistributionSummary.builder("users.write-batch.size")
+                .description("Количество записей в одной пачке upsert")
+                .register(meterRegistry);
+        this.flusher = new Thread(this::run, "user-write-batcher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Ставит запись в очередь и ждёт, пока пачка с ней будет закоммичена и выполнится {@code afterCommit}.
+     * Исключение записи пробрасывается как есть.
+     *
+     * @param afterCommit выполняется после коммита записи: в потоке записи пачки или, если запись
+     *                    пишет сам вызывающий, в его потоке; при таймауте ожидания всё равно выполнится,
+     *                    если пачка закоммитится позже
+     * @throws QueryTimeoutException если пачка с записью не закоммичена за write-timeout
+     */
+    public void upsert(User user, Runnable afterCommit) {
+        PendingWrite write = new PendingWrite(user, new CompletableFuture<>());
+        // вызывающий ждёт не саму запись, а afterCommit после неё: вернувшись, он уже видит сброшенный кэш
+        CompletableFuture<Void> committed = write.result().thenRun(afterCommit);
+        if (!this.queue.offer(write)) {
+            this.jdbcOperationsUserRepository.upsert(user);
+            afterCommit.run();
+            return;
+        }
+        // остановка могла начаться после offer: если запись ещё никто не забрал, пишем её сами
+        if (!this.running && this.queue.remove(write)) {
+            this.jdbcOperationsUserRepository.upsert(user);
+            afterCommit.run();
+            return;
+        }
+
+        try {
+            committed.get(this.writeTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            // поток записи не дошёл до записи: забираем её из очереди и пишем сами
+            if (this.queue.remove(write)) {
+                this.jdbcOperationsUserRepository.upsert(user);
+                afterCommit.run();
+                return;
+            }
+            // пачка с записью ещё пишется: если она закоммитится, afterCommit выполнит поток записи
+            throw new QueryTimeoutException("Пачка с записью пользователя не закоммичена за "
+                    + Duration.ofNanos(this.writeTimeoutNanos), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryTimeoutException("Ожидание записи пользователя прервано", e);
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(this.maxBatchSize);
+        while (this.running) {
+            try {
+                PendingWrite first = this.queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                collect(batch, System.nanoTime() + this.maxDelayNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.running = false;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    flush(batch);
+                } catch (Throwable e) {
+                    // ожидания пачки уже завершены в flush, а поток нужен следующим пачкам
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void collect(List<PendingWrite> batch, long deadline) throws InterruptedException {
+        while (batch.size() < this.maxBatchSize) {
+            this.queue.drainTo(batch, this.maxBatchSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= this.maxBatchSize || remaining <= 0)
+                return;
+
+            PendingWrite next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null)
+                return;
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        try {
+            this.batchSizes.record(batch.size());
+            List<User> users = batch.stream().map(PendingWrite::user).toList();
+            try {
+                this.transactionOperations.executeWithoutResult(
+                        status -> this.jdbcOperationsUserRepository.upsertAll(users));
+                batch.forEach(write -> write.result().complete(null));
+            } catch (RuntimeException e) {
+                if (batch.size() == 1) {
+                    batch.get(0).result().completeExceptionally(e);
+                    return;
+                }
+                // одна неудачная запись откатывает всю пачку, поэтому остальные повторяем по одной
+                for (PendingWrite write : batch) {
+                    try {
+                        this.jdbcOperationsUserRepository.upsert(write.user());
+                        write.result().complete(null);
+                    } catch (RuntimeException writeException) {
+                        write.result().completeExceptionally(writeException);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            // Error не должен оставить вызывающих ждать: незавершённые записи пачки получают его
+            batch.forEach(write -> write.result().completeExceptionally(e));
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        this.running = false;
+        this.flusher.join();
+
+        List<PendingWrite> rest = new ArrayList<>();
+        this.queue.drainTo(rest);
+        for (int from = 0; from < rest.size(); from += this.maxBatchSize)
+            flush(rest.subList(from, Math.min(rest.size(), from + this.maxBatchSize)));
+    }
+
+    private record PendingWrite(User user, CompletableFuture<Void> result) {
+    }
+}
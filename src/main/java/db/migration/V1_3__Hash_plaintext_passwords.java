@@ -0,0 +1,63 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Заменяет пароли, сохранённые до перехода на хэши, их bcrypt-хэшами.
+ * <p>
+ * Строки читаются пачками по id и каждая пачка коммитится сама: в памяти не больше {@link #BATCH_SIZE} паролей,
+ * а прерванная миграция при следующем запуске продолжит с ещё не хэшированных строк.
+ * Стоимость bcrypt берётся из плейсхолдера bcrypt-strength (spring.flyway.placeholders.bcrypt-strength,
+ * по умолчанию равен users.password.bcrypt-strength), чтобы хэши не отличались от тех, что пишет PasswordHasher.
+ */
+public class V1_3__Hash_plaintext_passwords extends BaseJavaMigration {
+
+    static final int BATCH_SIZE = 1000;
+    private static final int DEFAULT_STRENGTH = 10;
+    private static final String SELECT_FIRST_SQL =
+            "SELECT id, c_password FROM t_users WHERE c_password NOT LIKE '$2_$%' ORDER BY id LIMIT ?";
+    private static final String SELECT_NEXT_SQL =
+            "SELECT id, c_password FROM t_users WHERE c_password NOT LIKE '$2_$%' AND id > ? ORDER BY id LIMIT ?";
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+        String strength = context.getConfiguration().getPlaceholders().get("bcrypt-strength");
+        BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(
+                strength == null ? DEFAULT_STRENGTH : Integer.parseInt(strength));
+
+        RowMapper<PlaintextRow> rowMapper = (rs, rowNum) -> new PlaintextRow(rs.getObject(1, UUID.class), rs.getString(2));
+        UUID after = null;
+        List<PlaintextRow> rows;
+        do {
+            rows = after == null
+                    ? jdbcTemplate.query(SELECT_FIRST_SQL, rowMapper, BATCH_SIZE)
+                    : jdbcTemplate.query(SELECT_NEXT_SQL, rowMapper, after, BATCH_SIZE);
+            if (rows.isEmpty())
+                break;
+
+            // bcrypt занимает все ядра: при старте приложение всё равно ещё не обслуживает запросы
+            List<Object[]> hashed = rows.parallelStream()
+                    .map(row -> new Object[]{passwordEncoder.encode(row.password()), row.id()})
+                    .toList();
+            jdbcTemplate.batchUpdate("UPDATE t_users SET c_password = ? WHERE id = ?", hashed);
+            after = rows.get(rows.size() - 1).id();
+        } while (rows.size() == BATCH_SIZE);
+    }
+
+    private record PlaintextRow(UUID id, String password) {
+    }
+}
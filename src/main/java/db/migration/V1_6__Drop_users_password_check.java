@@ -0,0 +1,28 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Снимает CHECK длины пароля из V1_0: в колонке теперь хэш, и проверка всегда проходит.
+ * Правило длины проверяет NewUserPayload. У ограничения нет имени в DDL,
+ * поэтому H2 назвал его сам, и имя берётся из INFORMATION_SCHEMA.
+ */
+public class V1_6__Drop_users_password_check extends BaseJavaMigration {
+
+    @Override
+    public void migrate(Context context) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(context.getConnection(), true));
+        jdbcTemplate.queryForList("""
+                        SELECT tc.CONSTRAINT_NAME
+                        FROM INFORMATION_SCHEMA.TABLE_CONSTRAINTS tc
+                        JOIN INFORMATION_SCHEMA.CHECK_CONSTRAINTS cc
+                            ON cc.CONSTRAINT_SCHEMA = tc.CONSTRAINT_SCHEMA AND cc.CONSTRAINT_NAME = tc.CONSTRAINT_NAME
+                        WHERE tc.TABLE_SCHEMA = SCHEMA() AND tc.TABLE_NAME = 'T_USERS' AND tc.CONSTRAINT_TYPE = 'CHECK'
+                            AND cc.CHECK_CLAUSE LIKE '%C_PASSWORD%'
+                        """, String.class)
+                .forEach(name -> jdbcTemplate.execute("ALTER TABLE t_users DROP CONSTRAINT \"" + name + "\""));
+    }
+}
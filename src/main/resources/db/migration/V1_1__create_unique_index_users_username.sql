@@ -0,0 +1 @@
+CREATE UNIQUE INDEX ux_users_username ON t_users (c_username);
@@ -0,0 +1 @@
+ALTER TABLE t_users ALTER COLUMN c_password SET DATA TYPE VARCHAR(255);
@@ -0,0 +1,4 @@
+CREATE SEQUENCE seq_users_version;
+ALTER TABLE t_users ADD COLUMN c_version BIGINT DEFAULT NEXT VALUE FOR seq_users_version NOT NULL;
+UPDATE t_users SET c_version = NEXT VALUE FOR seq_users_version;
+CREATE INDEX ix_users_version ON t_users (c_version);
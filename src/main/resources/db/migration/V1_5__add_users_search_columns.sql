@@ -0,0 +1,6 @@
+ALTER TABLE t_users ADD COLUMN c_username_lower VARCHAR(32) GENERATED ALWAYS AS (LOWER(c_username));
+ALTER TABLE t_users ADD COLUMN c_name_lower VARCHAR(32) GENERATED ALWAYS AS (LOWER(c_name));
+ALTER TABLE t_users ADD COLUMN c_surname_lower VARCHAR(32) GENERATED ALWAYS AS (LOWER(c_surname));
+CREATE INDEX ix_users_username_lower ON t_users (c_username_lower, id);
+CREATE INDEX ix_users_name_lower ON t_users (c_name_lower, id);
+CREATE INDEX ix_users_surname_lower ON t_users (c_surname_lower, id);
@@ -0,0 +1,50 @@
+package com.leonidov.rest.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("prod")
+class ProdProfileIT {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void datasource_UsesTunedPoolAndH2Settings() {
+        HikariDataSource hikari = assertInstanceOf(HikariDataSource.class, this.dataSource);
+
+        assertEquals(16, hikari.getMaximumPoolSize());
+        assertEquals("131072", this.jdbcTemplate.queryForObject(
+                "SELECT SETTING_VALUE FROM INFORMATION_SCHEMA.SETTINGS WHERE SETTING_NAME = 'CACHE_SIZE'",
+                String.class));
+    }
+
+    @Test
+    void hikariMetrics_PublishWaitTimePercentiles() {
+        this.jdbcTemplate.queryForObject("SELECT COUNT(*) FROM t_users", Long.class);
+
+        Timer acquire = this.meterRegistry.get("hikaricp.connections.acquire").tag("pool", "users").timer();
+
+        assertTrue(acquire.count() > 0);
+        assertEquals(3, acquire.takeSnapshot().percentileValues().length);
+        assertNotNull(this.meterRegistry.get("hikaricp.connections.usage").tag("pool", "users").timer());
+        assertNotNull(this.meterRegistry.get("hikaricp.connections.pending").tag("pool", "users").gauge());
+    }
+}
@@ -0,0 +1,104 @@
+package com.leonidov.rest.config;
+
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+
+import jakarta.servlet.http.Cookie;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// две H2 в памяти: основная мигрирует Flyway приложения, реплике схему создаёт тест
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:users_primary;DB_CLOSE_DELAY=-1",
+        "users.datasource.replicas.urls=" + ReplicaRoutingConfigIT.REPLICA_URL
+})
+@AutoConfigureMockMvc
+class ReplicaRoutingConfigIT {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:users_replica;DB_CLOSE_DELAY=-1";
+    private static final String REPLICA_ONLY_ID = "9eacaeaa-42b4-490a-a2ef-d9afe8580bc9";
+
+    private static JdbcTemplate replica;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate primary;
+
+    @BeforeAll
+    static void migrateReplica() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(REPLICA_URL);
+        dataSource.setUser("sa");
+        Flyway.configure().dataSource(dataSource).locations("classpath:db/migration").load().migrate();
+        replica = new JdbcTemplate(dataSource);
+    }
+
+    @AfterEach
+    void cleanUp() {
+        replica.update("DELETE FROM t_users");
+        this.primary.update("DELETE FROM t_users");
+    }
+
+    private void insertIntoReplicaOnly() {
+        replica.update("INSERT INTO t_users(id, c_name, c_surname, c_username, c_password) VALUES (?, ?, ?, ?, ?)",
+                REPLICA_ONLY_ID, "name9", "surname9", "username9", "password9");
+    }
+
+    @Test
+    void handleGetAllUsers_ReadsFromReplica() throws Exception {
+        insertIntoReplicaOnly();
+
+        this.mockMvc.perform(get("/api/users"))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value(REPLICA_ONLY_ID)
+                );
+    }
+
+    @Test
+    void handleGetAllUsers_AfterWrite_ReadsFromPrimary() throws Exception {
+        insertIntoReplicaOnly();
+
+        Cookie pin = this.mockMvc.perform(post("/api/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "name": "name1",
+                                    "surname": "surname1",
+                                    "username": "username1",
+                                    "password": "password1"
+                                }
+                                """))
+                .andExpect(status().isCreated())
+                .andExpect(cookie().exists("users-primary-until"))
+                .andReturn().getResponse().getCookie("users-primary-until");
+
+        this.mockMvc.perform(get("/api/users").cookie(pin))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].username").value("username1")
+                );
+    }
+
+    @Test
+    void handleGetUser_CacheMissIsReadFromPrimary() throws Exception {
+        insertIntoReplicaOnly();
+
+        this.mockMvc.perform(get("/api/users/" + REPLICA_ONLY_ID))
+                .andExpect(status().isNotFound());
+    }
+}
@@ -0,0 +1,30 @@
+package com.leonidov.rest.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class VirtualThreadsConfigTest {
+
+    @Test
+    void newVirtualThreadPerTaskExecutor_ifJava21_runsTasksOnVirtualThreads() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 21);
+
+        ExecutorService executor = VirtualThreadsConfig.newVirtualThreadPerTaskExecutor();
+        Boolean isVirtual = executor.submit(() ->
+                (Boolean) Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get();
+        executor.shutdown();
+
+        assertTrue(isVirtual);
+    }
+
+    @Test
+    void newVirtualThreadPerTaskExecutor_ifOlderJava_failsFast() {
+        assumeTrue(Runtime.version().feature() < 21);
+
+        assertThrows(IllegalStateException.class, VirtualThreadsConfig::newVirtualThreadPerTaskExecutor);
+    }
+}
@@ -0,0 +1,102 @@
+package com.leonidov.rest.controller;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// настоящий Tomcat: сжатие и HTTP/2 делает коннектор, MockMvc их не видит;
+// запросы идут в другом потоке, поэтому данные коммитятся и убираются скриптом
+@Sql("/sql/tasks_rest_controller/test_data.sql")
+@Sql(scripts = "/sql/tasks_rest_controller/clean_data.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class HttpCompressionIT {
+
+    private static final int USERS = 100;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .build();
+
+    @BeforeEach
+    void insertUsers() {
+        for (int i = 0; i < USERS; i++)
+            this.jdbcTemplate.update("INSERT INTO t_users(id, c_name, c_surname, c_username, c_password) VALUES (?, ?, ?, ?, ?)",
+                    UUID.randomUUID(), "name" + i, "surname" + i, "bulk" + i, "password" + i);
+    }
+
+    @Test
+    void handleGetAllUsers_ClientAcceptsGzip_ReturnsCompressedPageOverHttp2() throws Exception {
+        HttpResponse<byte[]> plain = get("/api/users?limit=1000", null);
+        HttpResponse<byte[]> compressed = get("/api/users?limit=1000", "gzip");
+
+        assertEquals(HttpClient.Version.HTTP_2, compressed.version());
+        assertEquals(200, compressed.statusCode());
+        assertEquals("gzip", compressed.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null));
+        assertTrue(plain.headers().firstValue(HttpHeaders.CONTENT_ENCODING).isEmpty());
+
+        byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(compressed.body())).readAllBytes();
+        assertArrayEquals(plain.body(), unzipped);
+        // имена полей повторяются в каждой записи, несжимаемы по сути только id
+        assertTrue(compressed.body().length * 3 < plain.body().length,
+                compressed.body().length + " из " + plain.body().length);
+
+        // тег списка слабый, иначе Tomcat не стал бы сжимать; условный запрос с ним по-прежнему даёт 304
+        String etag = compressed.headers().firstValue(HttpHeaders.ETAG).orElseThrow();
+        assertTrue(etag.startsWith("W/"), etag);
+        HttpResponse<byte[]> notModified = this.client.send(request("/api/users?limit=1000", "gzip")
+                .header(HttpHeaders.IF_NONE_MATCH, etag).build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(304, notModified.statusCode());
+    }
+
+    @Test
+    void handleGetUser_ResponseBelowMinSize_IsNotCompressed() throws Exception {
+        HttpResponse<byte[]> response = get("/api/users/1eacaeaa-42b4-490a-a2ef-d9afe8580bc9", "gzip");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).isEmpty());
+    }
+
+    @Test
+    void handleExportUsers_ClientAcceptsGzip_StreamsCompressedNdjson() throws Exception {
+        HttpResponse<byte[]> response = get("/api/users/export", "gzip");
+
+        assertEquals("gzip", response.headers().firstValue(HttpHeaders.CONTENT_ENCODING).orElse(null));
+        String ndjson = new String(new GZIPInputStream(new ByteArrayInputStream(response.body())).readAllBytes());
+        assertEquals(USERS + 2, ndjson.lines().count());
+    }
+
+    private HttpResponse<byte[]> get(String path, String acceptEncoding) throws Exception {
+        return this.client.send(request(path, acceptEncoding).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private HttpRequest.Builder request(String path, String acceptEncoding) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + this.port + path));
+        if (acceptEncoding != null)
+            request.header(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        return request;
+    }
+}
@@ -0,0 +1,67 @@
+package com.leonidov.rest.controller;
+
+import com.leonidov.rest.data.DataSourceRouting;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadYourWritesFilterTest {
+
+    private final ReadYourWritesFilter filter = new ReadYourWritesFilter(Duration.ofSeconds(5));
+
+    private boolean pinnedDuring(MockHttpServletRequest request, MockHttpServletResponse response) throws Exception {
+        boolean[] pinned = new boolean[1];
+        this.filter.doFilter(request, response, (req, res) -> pinned[0] = DataSourceRouting.isPinnedToPrimary());
+        assertFalse(DataSourceRouting.isPinnedToPrimary());
+        return pinned[0];
+    }
+
+    @Test
+    void doFilter_Write_PinsRequestAndSetsCookie() throws Exception {
+        var response = new MockHttpServletResponse();
+
+        assertTrue(pinnedDuring(new MockHttpServletRequest("POST", "/api/users"), response));
+
+        Cookie cookie = response.getCookie(ReadYourWritesFilter.COOKIE_NAME);
+        assertNotNull(cookie);
+        assertTrue(Long.parseLong(cookie.getValue()) > System.currentTimeMillis());
+        assertEquals(5, cookie.getMaxAge());
+    }
+
+    @Test
+    void doFilter_ReadOnlyPost_NotPinnedAndNoCookie() throws Exception {
+        var batchGet = new MockHttpServletResponse();
+        var actuator = new MockHttpServletResponse();
+
+        assertFalse(pinnedDuring(new MockHttpServletRequest("POST", "/api/users/batch-get"), batchGet));
+        assertFalse(pinnedDuring(new MockHttpServletRequest("POST", "/actuator/loggers/com.leonidov"), actuator));
+        assertNull(batchGet.getCookie(ReadYourWritesFilter.COOKIE_NAME));
+        assertNull(actuator.getCookie(ReadYourWritesFilter.COOKIE_NAME));
+    }
+
+    @Test
+    void doFilter_ReadWithFreshCookie_PinnedToPrimary() throws Exception {
+        var request = new MockHttpServletRequest("GET", "/api/users");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME,
+                String.valueOf(System.currentTimeMillis() + 5000)));
+
+        assertTrue(pinnedDuring(request, new MockHttpServletResponse()));
+    }
+
+    @Test
+    void doFilter_ReadWithoutOrWithExpiredCookie_MayUseReplica() throws Exception {
+        var expired = new MockHttpServletRequest("GET", "/api/users");
+        expired.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME,
+                String.valueOf(System.currentTimeMillis() - 1)));
+        var response = new MockHttpServletResponse();
+
+        assertFalse(pinnedDuring(new MockHttpServletRequest("GET", "/api/users"), response));
+        assertFalse(pinnedDuring(expired, new MockHttpServletResponse()));
+        assertNull(response.getCookie(ReadYourWritesFilter.COOKIE_NAME));
+    }
+}
@@ -0,0 +1,33 @@
+package com.leonidov.rest.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// при max-exports=0 каждая выгрузка сверх лимита, отказ должен прийти до начала ответа
+@SpringBootTest(properties = "users.async.max-exports=0")
+@AutoConfigureMockMvc(printOnlyOnFailure = false)
+class UserAsyncExportLimitIT {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void handleExportUsers_ExportLimitReached_ReturnServiceUnavailable() throws Exception {
+        this.mockMvc.perform(get("/api/async/users/export").accept("application/x-ndjson"))
+                .andExpectAll(
+                        request().asyncNotStarted(),
+                        status().isServiceUnavailable(),
+                        header().string(HttpHeaders.RETRY_AFTER, "1"),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        jsonPath("$.message").value("Ошибка")
+                );
+    }
+}
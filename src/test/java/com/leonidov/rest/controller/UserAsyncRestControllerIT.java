@@ -0,0 +1,137 @@
+package com.leonidov.rest.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// запросы выполняются на пуле AsyncUserService, вне тестовой транзакции, поэтому данные коммитятся и убираются
+@Sql("/sql/tasks_rest_controller/test_data.sql")
+@Sql(scripts = "/sql/tasks_rest_controller/clean_data.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@SpringBootTest
+@AutoConfigureMockMvc(printOnlyOnFailure = false)
+class UserAsyncRestControllerIT {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void handleGetAllUsers_LimitIsLessThanTotal_ReturnsPageWithNextCursor() throws Exception {
+        var result = this.mockMvc.perform(get("/api/async/users").param("limit", "1"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(
+                        status().isOk(),
+                        header().string("X-Next-Cursor", "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].username").value("username1")
+                );
+    }
+
+    @Test
+    void handleGetUser_UserExists_ReturnsUser() throws Exception {
+        var result = this.mockMvc.perform(get("/api/async/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(
+                        status().isOk(),
+                        header().exists("ETag"),
+                        content().json("""
+                                {
+                                    "id": "2eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
+                                    "name": "name2",
+                                    "surname": "surname2",
+                                    "username": "username2"
+                                }
+                                """)
+                );
+    }
+
+    @Test
+    void handleGetUser_IfNoneMatchIsCurrent_ReturnsNotModified() throws Exception {
+        var first = this.mockMvc.perform(get("/api/async/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        var etag = this.mockMvc.perform(asyncDispatch(first))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        var result = this.mockMvc.perform(get("/api/async/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(
+                        status().isNotModified(),
+                        header().string(HttpHeaders.ETAG, etag),
+                        header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT),
+                        content().string("")
+                );
+    }
+
+    @Test
+    void handleGetUser_IfNoneMatchForOtherFormat_ReturnsUser() throws Exception {
+        var first = this.mockMvc.perform(get("/api/async/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        var etag = this.mockMvc.perform(asyncDispatch(first))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // тег JSON-представления не подходит к CBOR
+        var result = this.mockMvc.perform(get("/api/async/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag)
+                        .accept("application/cbor"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType("application/cbor")
+                );
+    }
+
+    @Test
+    void handleGetUser_UserNotExists_ReturnsNotFound() throws Exception {
+        var result = this.mockMvc.perform(get("/api/async/users/9eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void handleExportUsers_ReturnsNdjsonStream() throws Exception {
+        var result = this.mockMvc.perform(get("/api/async/users/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType("application/x-ndjson"),
+                        content().string("""
+                                {"id":"1eacaeaa-42b4-490a-a2ef-d9afe8580bc9","name":"name1","surname":"surname1","username":"username1"}
+                                {"id":"2eacaeaa-42b4-490a-a2ef-d9afe8580bc9","name":"name2","surname":"surname2","username":"username2"}
+                                """)
+                );
+    }
+}
@@ -0,0 +1,101 @@
+package com.leonidov.rest.controller;
+
+import com.leonidov.rest.service.UserEventLog;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// события публикуются после записи, поэтому записи коммитятся вне тестовой транзакции и убираются скриптом
+@Sql("/sql/tasks_rest_controller/test_data.sql")
+@Sql(scripts = "/sql/tasks_rest_controller/clean_data.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@SpringBootTest
+@AutoConfigureMockMvc
+class UserEventsRestControllerIT {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserEventLog userEventLog;
+
+    @Test
+    void handleUserEvents_NewUserCreated_StreamsCreatedEvent() throws Exception {
+        long lastSequence = this.userEventLog.lastSequence();
+        MvcResult events = this.mockMvc.perform(get("/api/users/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(post("/api/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "name": "name3",
+                                    "surname": "surname3",
+                                    "username": "username3",
+                                    "password": "password3"
+                                }
+                                """))
+                .andExpect(status().isCreated());
+
+        String body = awaitContent(events.getResponse(), "event:created");
+        assertTrue(body.contains("id:" + (lastSequence + 1)));
+        assertTrue(body.contains("\"username\":\"username3\""));
+        assertFalse(body.contains("password"));
+    }
+
+    @Test
+    void handleUserEvents_LastEventIdInBuffer_ReplaysMissedEvents() throws Exception {
+        long lastSequence = this.userEventLog.lastSequence();
+        this.mockMvc.perform(delete("/api/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(status().isOk());
+
+        MvcResult events = this.mockMvc.perform(get("/api/users/events")
+                        .header(UserEventsRestController.LAST_EVENT_ID_HEADER, lastSequence))
+                .andExpect(request().asyncStarted())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andReturn();
+
+        String body = awaitContent(events.getResponse(), "event:deleted");
+        assertTrue(body.contains("id:" + (lastSequence + 1)));
+        assertTrue(body.contains("\"id\":\"2eacaeaa-42b4-490a-a2ef-d9afe8580bc9\""));
+    }
+
+    @Test
+    void handleUserEvents_LastEventIdFromPreviousRun_SendsReset() throws Exception {
+        MvcResult events = this.mockMvc.perform(get("/api/users/events")
+                        .param("after", String.valueOf(this.userEventLog.lastSequence() + 1000)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = awaitContent(events.getResponse(), "event:reset");
+        assertTrue(body.contains("id:" + this.userEventLog.lastSequence()));
+    }
+
+    private static String awaitContent(MockHttpServletResponse response, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        String content = response.getContentAsString(StandardCharsets.UTF_8);
+        while (!content.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            content = response.getContentAsString(StandardCharsets.UTF_8);
+        }
+        assertTrue(content.contains(expected), content);
+        return content;
+    }
+}
@@ -0,0 +1,72 @@
+package com.leonidov.rest.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@Sql("/sql/tasks_rest_controller/test_data.sql")
+@Transactional
+@SpringBootTest
+@AutoConfigureMockMvc(printOnlyOnFailure = false)
+class UserImportRestControllerIT {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void handleImportUsers_JsonArray_ReturnsReport() throws Exception {
+        var requestBuilder = post("/api/users/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("""
+                        [
+                            {"name": "name3", "surname": "surname3", "username": "username3", "password": "password3"},
+                            {"name": "name4", "surname": "surname4", "username": "username1", "password": "password4"},
+                            {"name": "name5", "surname": "surname5", "username": "", "password": "password5"}
+                        ]
+                        """);
+
+        this.mockMvc.perform(requestBuilder)
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        content().json("""
+                                [
+                                    {"index": 0, "status": "CREATED", "details": []},
+                                    {"index": 1, "status": "CONFLICT", "id": null,
+                                        "details": ["Пользователь с таким username уже существует!"]},
+                                    {"index": 2, "status": "INVALID", "id": null,
+                                        "details": ["Поле username не должно быть пустым"]}
+                                ]
+                                """),
+                        jsonPath("$[0].id").isNotEmpty()
+                );
+
+        this.mockMvc.perform(get("/api/users"))
+                .andExpect(jsonPath("$.length()").value(3));
+    }
+
+    @Test
+    void handleImportUsers_Ndjson_ReturnsReport() throws Exception {
+        var requestBuilder = post("/api/users/bulk")
+                .contentType("application/x-ndjson")
+                .content("""
+                        {"name": "name3", "surname": "surname3", "username": "username3", "password": "password3"}
+                        {"name": "name4", "surname": "surname4", "username": "username3", "password": "password4"}
+                        """);
+
+        this.mockMvc.perform(requestBuilder)
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$[0].status").value("CREATED"),
+                        jsonPath("$[1].status").value("CONFLICT")
+                );
+    }
+}
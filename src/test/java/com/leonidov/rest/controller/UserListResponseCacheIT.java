@@ -0,0 +1,105 @@
+package com.leonidov.rest.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+// страницы пересобираются в фоне, вне тестовой транзакции, поэтому данные коммитятся и убираются скриптом;
+// у каждого теста свой limit, чтобы не получить страницу, собранную предыдущим тестом
+@Sql("/sql/tasks_rest_controller/test_data.sql")
+@Sql(scripts = "/sql/tasks_rest_controller/clean_data.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@SpringBootTest(properties = {"users.list-cache.enabled=true", "users.list-cache.max-stale=1h"})
+@AutoConfigureMockMvc
+class UserListResponseCacheIT {
+
+    private static final long WAIT_MILLIS = 5000;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void handleGetAllUsers_AfterWrite_ServesStalePageWhileRebuilding() throws Exception {
+        this.mockMvc.perform(get("/api/users").param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+
+        this.mockMvc.perform(post("/api/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {
+                                    "name": "name3",
+                                    "surname": "surname3",
+                                    "username": "username3",
+                                    "password": "password3"
+                                }
+                                """))
+                .andExpect(status().isCreated());
+
+        // первый запрос после записи получает прежнюю страницу и запускает пересборку
+        this.mockMvc.perform(get("/api/users").param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(2));
+
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        String body;
+        do {
+            Thread.sleep(10);
+            body = this.mockMvc.perform(get("/api/users").param("limit", "10"))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(StandardCharsets.UTF_8);
+        } while (!body.contains("username3") && System.currentTimeMillis() < deadline);
+        assertTrue(body.contains("username3"), body);
+    }
+
+    @Test
+    void handleGetAllUsers_ClientAcceptsGzip_ReturnsCompressedPage() throws Exception {
+        for (int i = 0; i < 20; i++)
+            this.jdbcTemplate.update("INSERT INTO t_users(id, c_name, c_surname, c_username, c_password) VALUES (?, ?, ?, ?, ?)",
+                    UUID.randomUUID(), "name" + i, "surname" + i, "bulk" + i, "password" + i);
+
+        var plain = this.mockMvc.perform(get("/api/users").param("limit", "50"))
+                .andExpectAll(
+                        status().isOk(),
+                        header().doesNotExist(HttpHeaders.CONTENT_ENCODING),
+                        header().string(HttpHeaders.VARY, "Accept, Accept-Encoding"),
+                        jsonPath("$.length()").value(22))
+                .andReturn().getResponse();
+
+        var compressed = this.mockMvc.perform(get("/api/users").param("limit", "50")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0.8"))
+                .andExpectAll(
+                        status().isOk(),
+                        header().string(HttpHeaders.CONTENT_ENCODING, "gzip"),
+                        header().string(HttpHeaders.ETAG, plain.getHeader(HttpHeaders.ETAG)))
+                .andReturn().getResponse();
+
+        byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(compressed.getContentAsByteArray())).readAllBytes();
+        assertArrayEquals(plain.getContentAsByteArray(), unzipped);
+        assertTrue(compressed.getContentAsByteArray().length < unzipped.length);
+
+        this.mockMvc.perform(get("/api/users").param("limit", "50")
+                        .header(HttpHeaders.IF_NONE_MATCH, plain.getHeader(HttpHeaders.ETAG)))
+                .andExpect(status().isNotModified());
+    }
+}
@@ -0,0 +1,81 @@
+package com.leonidov.rest.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.leonidov.rest.service.UserEventLog;
+import com.leonidov.rest.service.UserService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+class UserListResponseCacheTest {
+
+    private final ExecutorService readers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdownReaders() {
+        this.readers.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Одновременные запросы за устаревшей страницей пересобирают её один раз")
+    void get_ConcurrentRequestsForStalePage_RebuildOnce() throws Exception {
+        var userService = mock(UserService.class);
+        var userEventLog = mock(UserEventLog.class);
+        var builds = new AtomicInteger();
+        var rebuilding = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        when(userService.findCollectionVersion()).thenReturn("1");
+        when(userService.writePage(isNull(), eq(10), isNull(), any(JsonGenerator.class))).thenAnswer(invocation -> {
+            if (builds.incrementAndGet() > 1) {
+                rebuilding.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            return null;
+        });
+        when(userEventLog.lastSequence()).thenReturn(1L);
+        var pageFormatFactories = new PageFormatFactories(new ObjectMapper(),
+                new MappingJackson2CborHttpMessageConverter(), new MappingJackson2SmileHttpMessageConverter());
+        var cache = new UserListResponseCache(userService, userEventLog, pageFormatFactories,
+                new SimpleMeterRegistry(), 16, Duration.ZERO, false);
+        try {
+            cache.get(null, 10, null, PageFormat.JSON);
+            // запись после построения: страница устарела, а max-stale = 0 не даёт отдать её как есть
+            when(userEventLog.lastSequence()).thenReturn(2L);
+
+            var first = CompletableFuture.supplyAsync(() -> cache.get(null, 10, null, PageFormat.JSON), this.readers);
+            assertTrue(rebuilding.await(10, TimeUnit.SECONDS));
+            var others = IntStream.range(0, 3)
+                    .mapToObj(i -> CompletableFuture.supplyAsync(() -> cache.get(null, 10, null, PageFormat.JSON), this.readers))
+                    .toList();
+            Thread.sleep(100);
+            release.countDown();
+
+            var rebuilt = first.get(10, TimeUnit.SECONDS);
+            assertEquals(2, rebuilt.sequence());
+            for (var other : others)
+                assertSame(rebuilt, other.get(10, TimeUnit.SECONDS));
+            assertEquals(2, builds.get());
+        } finally {
+            cache.destroy();
+        }
+    }
+}
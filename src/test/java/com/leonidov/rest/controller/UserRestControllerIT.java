@@ -1,5 +1,11 @@
 package com.leonidov.rest.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import com.leonidov.rest.exception.ErrorResponse;
+import com.leonidov.rest.model.NewUserPayload;
+import com.leonidov.rest.model.User;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -8,8 +14,13 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -36,21 +47,61 @@ class UserRestControllerIT {
                                         "id": "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
                                         "name": "name1",
                                         "surname": "surname1",
-                                        "username": "username1",
-                                        "password": "password1"
+                                        "username": "username1"
                                     },
                                     {
                                         "id": "2eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
                                         "name": "name2",
                                         "surname": "surname2",
-                                        "username": "username2",
-                                        "password": "password2"                        
+                                        "username": "username2"
                                     }
                                 ]
                                 """)
                 );
     }
 
+    @Test
+    void handleGetAllUsers_LimitIsLessThanTotal_ReturnsPageWithNextCursor() throws Exception {
+        var requestBuilder = get("/api/users").param("limit", "1");
+
+        this.mockMvc.perform(requestBuilder)
+                .andExpectAll(
+                        status().isOk(),
+                        header().string("X-Next-Cursor", "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                );
+
+        this.mockMvc.perform(get("/api/users")
+                        .param("limit", "1")
+                        .param("after", "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpectAll(
+                        status().isOk(),
+                        header().doesNotExist("X-Next-Cursor"),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                );
+    }
+
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    @Sql("/sql/tasks_rest_controller/test_data.sql")
+    @Sql(scripts = "/sql/tasks_rest_controller/clean_data.sql", executionPhase = Sql.ExecutionPhase.AFTER_TEST_METHOD)
+    void handleExportUsers_ReturnsNdjsonStream() throws Exception {
+        var result = this.mockMvc.perform(get("/api/users/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        this.mockMvc.perform(asyncDispatch(result))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType("application/x-ndjson"),
+                        content().string(containsString("\"username\":\"username1\"")),
+                        content().string(containsString("\"username\":\"username2\""))
+                );
+    }
+
     @Test
     void handleGetUser_PayloadIsValid_ReturnValidResponseEntity() throws Exception {
         var requestBuilder = get("/api/users/1eacaeaa-42b4-490a-a2ef-d9afe8580bc9");
@@ -64,8 +115,7 @@ class UserRestControllerIT {
                                         "id": "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
                                         "name": "name1",
                                         "surname": "surname1",
-                                        "username": "username1",
-                                        "password": "password1"
+                                        "username": "username1"
                                     }
                                 """)
                 );
@@ -103,11 +153,42 @@ class UserRestControllerIT {
                                 {
                                     "name": "name3",
                                     "surname": "surname3",
-                                    "username": "username3",
-                                    "password": "password3"
+                                    "username": "username3"
                                 }
                                 """),
-                        jsonPath("$.id").exists()
+                        jsonPath("$.id").exists(),
+                        jsonPath("$.password").doesNotExist(),
+                        jsonPath("$.passwordHash").doesNotExist()
+                );
+    }
+
+    @Test
+    void handleAddNewUser_UsernameExists_ReturnValidResponseEntity() throws Exception {
+        var requestBuilder = post("/api/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                        """
+                                {
+                                    "name": "name3",
+                                    "surname": "surname3",
+                                    "username": "username1",
+                                    "password": "password3"
+                                }
+                                """
+                );
+
+        this.mockMvc.perform(requestBuilder)
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        content().json("""
+                                {
+                                    "message": "Ошибка",
+                                    "details": [
+                                        "Пользователь с таким username уже существует!"
+                                    ]
+                                }
+                                """)
                 );
     }
 
@@ -206,8 +287,7 @@ class UserRestControllerIT {
                                     "id": "2eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
                                     "name": "name3",
                                     "surname": "surname3",
-                                    "username": "usernamewwge",
-                                    "password": "password3"
+                                    "username": "usernamewwge"
                                 }
                                 """)
                 );
@@ -242,4 +322,225 @@ class UserRestControllerIT {
                                 """)
                 );
     }
-}
\ No newline at end of file
+
+    @Test
+    void handleGetUser_IfNoneMatchIsCurrent_ReturnNotModified() throws Exception {
+        var etag = this.mockMvc.perform(get("/api/users/1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        this.mockMvc.perform(get("/api/users/1eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpectAll(
+                        status().isNotModified(),
+                        header().string(HttpHeaders.ETAG, etag),
+                        content().string("")
+                );
+    }
+
+    @Test
+    void handleGetAllUsers_IfNoneMatch_ReturnNotModifiedUntilListChanges() throws Exception {
+        var etag = this.mockMvc.perform(get("/api/users"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        this.mockMvc.perform(get("/api/users").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        this.mockMvc.perform(delete("/api/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(status().isOk());
+
+        this.mockMvc.perform(get("/api/users").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpectAll(
+                        status().isOk(),
+                        jsonPath("$.length()").value(1)
+                );
+    }
+
+    @Test
+    void handleUpdateUser_IfMatchIsStale_ReturnPreconditionFailed() throws Exception {
+        var etag = this.mockMvc.perform(get("/api/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        var payload = """
+                {
+                    "name": "name3",
+                    "surname": "surname3",
+                    "username": "username3",
+                    "password": "password3"
+                }
+                """;
+
+        this.mockMvc.perform(put("/api/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                        .header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(payload))
+                .andExpect(status().isCreated());
+
+        this.mockMvc.perform(put("/api/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                        .header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(payload))
+                .andExpectAll(
+                        status().isPreconditionFailed(),
+                        content().json("""
+                                {
+                                    "message": "Ошибка",
+                                    "details": [
+                                        "Пользователь был изменён, получите актуальную версию и повторите запрос"
+                                    ]
+                                }
+                                """)
+                );
+
+        this.mockMvc.perform(delete("/api/users/2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                        .header(HttpHeaders.IF_MATCH, etag))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    @Test
+    void handleGetAllUsers_FieldsSelected_ReturnOnlyRequestedFields() throws Exception {
+        this.mockMvc.perform(get("/api/users").param("fields", "username"))
+                .andExpectAll(
+                        status().isOk(),
+                        content().json("""
+                                [
+                                    {"id": "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9", "username": "username1"},
+                                    {"id": "2eacaeaa-42b4-490a-a2ef-d9afe8580bc9", "username": "username2"}
+                                ]
+                                """, true)
+                );
+
+        this.mockMvc.perform(get("/api/users/1eacaeaa-42b4-490a-a2ef-d9afe8580bc9").param("fields", "name,surname"))
+                .andExpectAll(
+                        status().isOk(),
+                        content().json("""
+                                {"id": "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9", "name": "name1", "surname": "surname1"}
+                                """, true)
+                );
+    }
+
+    @Test
+    void handleGetAllUsers_UnknownField_ReturnBadRequest() throws Exception {
+        this.mockMvc.perform(get("/api/users").param("fields", "username,password"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().json("""
+                                {
+                                    "message": "Ошибка",
+                                    "details": [
+                                        "Неизвестное поле password, доступны: id, name, surname, username"
+                                    ]
+                                }
+                                """)
+                );
+    }
+
+    @Test
+    void handleBatchGetUsers_ReturnUsersInRequestOrderWithNullForMissing() throws Exception {
+        this.mockMvc.perform(post("/api/users/batch-get")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                [
+                                    "2eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
+                                    "0eacaeaa-42b4-490a-a2ef-d9afe8580bc9",
+                                    "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"
+                                ]
+                                """))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(MediaType.APPLICATION_JSON),
+                        content().json("""
+                                [
+                                    {"id": "2eacaeaa-42b4-490a-a2ef-d9afe8580bc9", "username": "username2"},
+                                    null,
+                                    {"id": "1eacaeaa-42b4-490a-a2ef-d9afe8580bc9", "username": "username1"}
+                                ]
+                                """)
+                );
+    }
+
+    @Test
+    void handleGetAllUsers_AcceptCbor_ReturnsSameUsersAsJson() throws Exception {
+        byte[] json = this.mockMvc.perform(get("/api/users"))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        byte[] cbor = this.mockMvc.perform(get("/api/users")
+                        .accept(MediaType.APPLICATION_CBOR))
+                .andExpectAll(
+                        status().isOk(),
+                        content().contentType(MediaType.APPLICATION_CBOR),
+                        header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(List.of(new ObjectMapper().readValue(json, User[].class)),
+                List.of(new CBORMapper().readValue(cbor, User[].class)));
+        assertTrue(cbor.length < json.length);
+    }
+
+    @Test
+    void handleAddNewUser_SmileBody_ReturnsUserInSmile() throws Exception {
+        SmileMapper smileMapper = new SmileMapper();
+        MediaType smile = MediaType.parseMediaType("application/x-jackson-smile");
+
+        byte[] body = this.mockMvc.perform(post("/api/users")
+                        .contentType(smile)
+                        .accept(smile)
+                        .content(smileMapper.writeValueAsBytes(
+                                new NewUserPayload("name3", "surname3", "username3", "password3"))))
+                .andExpectAll(
+                        status().isCreated(),
+                        content().contentType(smile))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        User user = smileMapper.readValue(body, User.class);
+        assertEquals("username3", user.username());
+        assertNotNull(user.id());
+    }
+
+    @Test
+    void handleAddNewUser_PayloadInvalid_AcceptCbor_ReturnsErrorInCbor() throws Exception {
+        byte[] body = this.mockMvc.perform(post("/api/users")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.APPLICATION_CBOR)
+                        .content("""
+                                {
+                                    "name": "name3",
+                                    "surname": "surname3",
+                                    "username": "",
+                                    "password": "password3"
+                                }
+                                """))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().contentType(MediaType.APPLICATION_CBOR))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertEquals(new ErrorResponse("Ошибка валидации", List.of("Поле username не должно быть пустым")),
+                new CBORMapper().readValue(body, ErrorResponse.class));
+    }
+
+    @Test
+    void handleAddNewUser_PasswordTooShortWithoutPadding_ReturnValidationError() throws Exception {
+        for (String password : new String[]{"password", "   password   "}) {
+            this.mockMvc.perform(post("/api/users")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("""
+                                    {
+                                        "name": "name3",
+                                        "surname": "surname3",
+                                        "username": "username3",
+                                        "password": "%s"
+                                    }
+                                    """.formatted(password)))
+                    .andExpectAll(
+                            status().isBadRequest(),
+                            content().json("""
+                                    {
+                                        "message": "Ошибка валидации",
+                                        "details": ["Пароль без пробелов по краям должен быть длиннее 8 символов"]
+                                    }
+                                    """));
+        }
+    }
+}
@@ -1,27 +1,48 @@
 package com.leonidov.rest.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leonidov.rest.exception.ErrorResponse;
 import com.leonidov.rest.model.NewUserPayload;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserIdGenerator;
+import com.leonidov.rest.model.UserProjection;
+import com.leonidov.rest.service.PasswordHasher;
 import com.leonidov.rest.service.UserService;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.stubbing.Answer;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.MessageSource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.ByteArrayOutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -33,38 +54,185 @@ class UserRestControllerTest {
     @Mock
     MessageSource messageSource;
 
+    @Spy
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Mock
+    PasswordHasher passwordHasher;
+
+    @Mock
+    UserIdGenerator userIdGenerator;
+
+    @Mock
+    ObjectProvider<UserListResponseCache> userListResponseCache;
+
+    @Spy
+    PageFormatFactories pageFormatFactories = new PageFormatFactories(this.objectMapper,
+            new MappingJackson2CborHttpMessageConverter(), new MappingJackson2SmileHttpMessageConverter());
+
     @InjectMocks
     UserRestController controller;
 
 
     @Test
     @DisplayName("GET /api/users возвращает ответ со статусом 200 OK и списком пользователей")
-    void handleGetAllUsers_ReturnsValidResponseEntity() {
+    void handleGetAllUsers_ReturnsValidResponseEntity() throws Exception {
         var users = List.of(new User(UUID.randomUUID(), "name1", "surname1", "username1", "password1"),
                     new User(UUID.randomUUID(), "name2", "surname2", "username2", "password2"));
 
-        doReturn(users).when(this.userService).findAll();
-        var responseEntity = this.controller.handleGetAllUsers();
+        doAnswer(writeRows(users, null)).when(this.userService).writePage(eq(null), eq(100), eq(null), any());
+        var responseEntity = this.controller.handleGetAllUsers(null, 100, null, null, null, null);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
-        assertEquals(users, responseEntity.getBody());
+        assertEquals(this.objectMapper.valueToTree(users), this.objectMapper.readTree((byte[]) responseEntity.getBody()));
+        assertFalse(responseEntity.getHeaders().containsKey(UserRestController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    @DisplayName("GET /api/users возвращает курсор следующей страницы и ограничивает размер страницы")
+    void handleGetAllUsers_PageIsFull_ReturnsNextCursor() throws Exception {
+        var after = UUID.randomUUID();
+        var user = new User(UUID.randomUUID(), "name1", "surname1", "username1", "password1");
+
+        doAnswer(writeRows(List.of(user), user.id())).when(this.userService)
+                .writePage(eq(after), eq(UserRestController.MAX_PAGE_SIZE), eq(null), any());
+        var responseEntity = this.controller.handleGetAllUsers(after, 1_000_000, null, null, null, null);
+
+        assertNotNull(responseEntity);
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(this.objectMapper.valueToTree(List.of(user)),
+                this.objectMapper.readTree((byte[]) responseEntity.getBody()));
+        assertEquals(user.id().toString(),
+                responseEntity.getHeaders().getFirst(UserRestController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    @DisplayName("GET /api/users?fields= возвращает только запрошенные поля и id")
+    void handleGetAllUsers_FieldsSelected_ReturnsProjections() throws Exception {
+        var fields = List.of(UserField.ID, UserField.USERNAME);
+        var users = List.of(new UserProjection(fields, new Object[]{UUID.randomUUID(), "username1"}));
+
+        doAnswer(writeRows(users, null)).when(this.userService).writePage(eq(null), eq(100), eq(fields), any());
+        var responseEntity = this.controller.handleGetAllUsers(null, 100, List.of("username"), null, null, null);
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(this.objectMapper.valueToTree(users), this.objectMapper.readTree((byte[]) responseEntity.getBody()));
+        verify(this.userService, never()).writePage(eq(null), eq(100), eq(null), any());
+    }
+
+    @Test
+    @DisplayName("GET /api/users/export возвращает всех пользователей в формате NDJSON, по одному на строку")
+    void handleExportUsers_ReturnsNdjsonStream() throws Exception {
+        var first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"), "name1", "surname1", "username1", "password1");
+        var second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"), "name2", "surname2", "username2", "password2");
+
+        doAnswer(invocation -> {
+            JsonGenerator generator = invocation.getArgument(1);
+            for (User user : List.of(first, second)) {
+                generator.writeObject(user);
+                generator.writeRaw('\n');
+            }
+            return null;
+        }).when(this.userService).writeNdjson(eq(null), any());
+        var responseEntity = this.controller.handleExportUsers(null);
+        var outputStream = new ByteArrayOutputStream();
+        responseEntity.getBody().writeTo(outputStream);
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(MediaType.parseMediaType("application/x-ndjson"), responseEntity.getHeaders().getContentType());
+        var lines = outputStream.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(this.objectMapper.valueToTree(first), this.objectMapper.readTree(lines[0]));
+        assertEquals(this.objectMapper.valueToTree(second), this.objectMapper.readTree(lines[1]));
+        assertFalse(lines[0].contains("password"));
+    }
+
+    /**
+     * Заменяет {@link UserService#writePage}: пишет готовые объекты в переданный генератор.
+     */
+    private Answer<UUID> writeRows(List<?> rows, UUID nextCursor) {
+        return invocation -> {
+            JsonGenerator generator = invocation.getArgument(3);
+            for (Object row : rows)
+                this.objectMapper.writeValue(generator, row);
+            return nextCursor;
+        };
     }
 
     @Test
     @DisplayName("GET /api/users/{id} возвращает ответ со статусом 200 OK и пользователем")
     void handleGetUser_IdIsValid_ReturnValidResponse() {
         var id = UUID.randomUUID();
-        var user = new User(id, "name", "surname", "username", "password");
+        var user = new User(id, "name", "surname", "username", "password", 5);
 
         when(this.userService.findById(id)).thenReturn(Optional.of(user));
-        var responseEntity = this.controller.handleGetUser(id);
+        var responseEntity = this.controller.handleGetUser(id, null, null, null);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals("\"5\"", responseEntity.getHeaders().getETag());
         assertEquals(user, responseEntity.getBody());
         verify(this.userService, times(1)).findById(id);
+        verify(this.userService, never()).findVersionById(id);
+    }
+
+    @Test
+    @DisplayName("GET /api/users/{id} возвращает 304 NOT_MODIFIED без тела, если версия совпадает с If-None-Match")
+    void handleGetUser_ETagMatches_ReturnNotModified() {
+        var id = UUID.randomUUID();
+
+        when(this.userService.findVersionById(id)).thenReturn(Optional.of(7L));
+        var responseEntity = this.controller.handleGetUser(id, null, "\"6\", W/\"7\"", null);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, responseEntity.getStatusCode());
+        assertEquals("\"7\"", responseEntity.getHeaders().getETag());
+        assertNull(responseEntity.getBody());
+        verify(this.userService, never()).findById(id);
+    }
+
+    @Test
+    @DisplayName("GET /api/users/{id} в CBOR отдаёт ETag с форматом и Vary: Accept, а тег JSON-представления не даёт 304")
+    void handleGetUser_CborAcceptedWithJsonETag_ReturnCborWithOwnETag() {
+        var id = UUID.randomUUID();
+        var user = new User(id, "name", "surname", "username", "password", 7);
+
+        when(this.userService.findVersionById(id)).thenReturn(Optional.of(7L));
+        when(this.userService.findById(id)).thenReturn(Optional.of(user));
+        var responseEntity = this.controller.handleGetUser(id, null, "\"7\"", "application/cbor");
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals("\"7-cbor\"", responseEntity.getHeaders().getETag());
+        assertEquals(MediaType.APPLICATION_CBOR, responseEntity.getHeaders().getContentType());
+        assertEquals(List.of(HttpHeaders.ACCEPT), responseEntity.getHeaders().getVary());
+    }
+
+    @Test
+    @DisplayName("PUT /api/users/{id} принимает в If-Match тег представления в любом формате")
+    void handleUpdateUser_IfMatchSmileETag_UpdatesExpectedVersion() {
+        var id = UUID.randomUUID();
+        var user = new User(id, "name", "surname", "username", "hash");
+
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        when(this.userService.update(user, Set.of(7L))).thenReturn(true);
+        var responseEntity = this.controller.handleUpdateUser(
+                id, new NewUserPayload("name", "surname", "username", "password"), "\"7-smile\"",
+                UriComponentsBuilder.fromUriString("http://localhost:8080"), Locale.ENGLISH);
+
+        assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
+    }
+
+    @Test
+    @DisplayName("GET /api/users возвращает 304 NOT_MODIFIED без чтения страницы, если версия списка не изменилась")
+    void handleGetAllUsers_ETagMatches_ReturnNotModified() {
+        when(this.userService.findCollectionVersion()).thenReturn("2-9");
+        var responseEntity = this.controller.handleGetAllUsers(null, 100, null, "\"2-9\"", null, null);
+
+        assertEquals(HttpStatus.NOT_MODIFIED, responseEntity.getStatusCode());
+        assertEquals("W/\"2-9\"", responseEntity.getHeaders().getETag());
+        assertNull(responseEntity.getBody());
+        verify(this.userService, never()).writePage(any(), anyInt(), any(), any());
     }
 
     @Test
@@ -73,7 +241,7 @@ class UserRestControllerTest {
         var id = UUID.randomUUID();
 
         when(this.userService.findById(id)).thenReturn(Optional.empty());
-        var responseEntity = this.controller.handleGetUser(id);
+        var responseEntity = this.controller.handleGetUser(id, null, null, null);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.NOT_FOUND, responseEntity.getStatusCode());
@@ -86,25 +254,28 @@ class UserRestControllerTest {
     void handleAddNewUser_PayloadIsValid_ReturnValidResponseEntity() {
         var name = "name";
         var username = "username";
+        var id = UUID.randomUUID();
 
-        when(this.userService.findByUsername(username)).thenReturn(Optional.empty());
+        when(this.userIdGenerator.nextId()).thenReturn(id);
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
         var responseEntity = this.controller.handleAddNewUser(
                 new NewUserPayload(name, "surname", username, "password"),
                 UriComponentsBuilder.fromUriString("http://localhost:8080"), Locale.ENGLISH);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
-        assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
+        assertNull(responseEntity.getHeaders().getContentType());
         if (responseEntity.getBody() instanceof User user) {
-            assertNotNull(user.id());
+            assertEquals(id, user.id());
             assertEquals(name, user.name());
             assertEquals(username, user.username());
+            assertEquals("hash", user.passwordHash());
 
             assertEquals(URI.create("http://localhost:8080/api/users/" + user.id()),
                     responseEntity.getHeaders().getLocation());
 
-            verify(this.userService, times(1)).findByUsername(username);
             verify(this.userService, times(1)).saveOrUpdate(user);
+            verify(this.userService, never()).findByUsername(username);
         } else {
             assertInstanceOf(User.class, responseEntity.getBody());
         }
@@ -119,16 +290,46 @@ class UserRestControllerTest {
 
         doReturn(errorMessage).when(this.messageSource).getMessage(
                 "user.errors.not_create_is_username_exists", new Object[0], locale);
-        when(this.userService.findByUsername(username)).thenReturn(Optional.of(new User("", "", "", "")));
+        when(this.userIdGenerator.nextId()).thenReturn(UUID.randomUUID());
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        doThrow(new DuplicateKeyException("ux_users_username")).when(this.userService).saveOrUpdate(any(User.class));
         var responseEntity = this.controller.handleAddNewUser(
                 new NewUserPayload("name", "surname", username, "password"),
                 UriComponentsBuilder.fromUriString("http://localhost:8080"), locale);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
-        assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
+        assertNull(responseEntity.getHeaders().getContentType());
         assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
-        verify(this.userService, times(1)).findByUsername(username);
+        verify(this.userService, never()).findByUsername(username);
+    }
+
+    @Test
+    @DisplayName("POST /api/users/batch-get возвращает пользователей в порядке запроса и null на месте ненайденных")
+    void handleBatchGetUsers_ReturnsUsersInRequestOrder() {
+        var first = new User(UUID.randomUUID(), "name1", "surname1", "username1", "password1");
+        var second = new User(UUID.randomUUID(), "name2", "surname2", "username2", "password2");
+        var missing = UUID.randomUUID();
+        var ids = List.of(second.id(), missing, first.id());
+
+        when(this.userService.findAllById(ids)).thenReturn(Map.of(first.id(), first, second.id(), second));
+        var responseEntity = this.controller.handleBatchGetUsers(ids, null, null, Locale.ENGLISH);
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(Arrays.asList(second, null, first), responseEntity.getBody());
+    }
+
+    @Test
+    @DisplayName("POST /api/users/batch-get возвращает 400 BAD_REQUEST, если id больше допустимого")
+    void handleBatchGetUsers_TooManyIds_ReturnsBadRequest() {
+        var ids = Collections.nCopies(UserRestController.MAX_PAGE_SIZE + 1, UUID.randomUUID());
+
+        doReturn("too many").when(this.messageSource).getMessage(
+                "user.errors.batch_too_large", new Object[]{UserRestController.MAX_PAGE_SIZE}, Locale.ENGLISH);
+        var responseEntity = this.controller.handleBatchGetUsers(ids, null, null, Locale.ENGLISH);
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        verifyNoInteractions(this.userService);
     }
 
     @Test
@@ -140,15 +341,15 @@ class UserRestControllerTest {
 
         doReturn(errorMessage).when(this.messageSource).getMessage(
                 "user.success.delete", new Object[0], locale);
-        when(this.userService.findById(id)).thenReturn(Optional.of(new User("", "", "", "")));
-        var responseEntity = this.controller.handleDeleteUser(id, locale);
+        when(this.userService.deleteById(id)).thenReturn(true);
+        var responseEntity = this.controller.handleDeleteUser(id, null, locale);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
-        assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
+        assertNull(responseEntity.getHeaders().getContentType());
         assertEquals(new ErrorResponse("Успешно", List.of(errorMessage)), responseEntity.getBody());
-        verify(this.userService, times(1)).findById(id);
         verify(this.userService, times(1)).deleteById(id);
+        verify(this.userService, never()).findById(id);
     }
 
     @Test
@@ -160,14 +361,14 @@ class UserRestControllerTest {
 
         doReturn(errorMessage).when(this.messageSource).getMessage(
                 "user.errors.find_by_id_not_exists", new Object[0], locale);
-        when(this.userService.findById(id)).thenReturn(Optional.empty());
-        var responseEntity = this.controller.handleDeleteUser(id, locale);
+        when(this.userService.deleteById(id)).thenReturn(false);
+        var responseEntity = this.controller.handleDeleteUser(id, null, locale);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
-        assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
+        assertNull(responseEntity.getHeaders().getContentType());
         assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
-        verify(this.userService, times(1)).findById(id);
+        verify(this.userService, times(1)).deleteById(id);
     }
 
     @Test
@@ -175,19 +376,40 @@ class UserRestControllerTest {
     void handleUpdateUser_IdIsValid_ReturnValidResponse() {
         var id = UUID.randomUUID();
         var locale = Locale.ENGLISH;
-        var user = new User(id, "name", "surname", "username", "password");
+        var user = new User(id, "name", "surname", "username", "hash");
 
-        when(this.userService.findById(id)).thenReturn(Optional.of(user));
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        when(this.userService.update(user)).thenReturn(true);
         var responseEntity = this.controller.handleUpdateUser(
-                id, new NewUserPayload("name", "surname", "username", "password"),
+                id, new NewUserPayload("name", "surname", "username", "password"), null,
                 UriComponentsBuilder.fromUriString("http://localhost:8080"), locale);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.CREATED, responseEntity.getStatusCode());
-        assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
+        assertNull(responseEntity.getHeaders().getContentType());
         assertEquals(user, responseEntity.getBody());
-        verify(this.userService, times(1)).findById(id);
-        verify(this.userService, times(1)).saveOrUpdate(user);
+        verify(this.userService, times(1)).update(user);
+        verify(this.userService, never()).findById(id);
+    }
+
+    @Test
+    @DisplayName("PUT /api/users/{id} Возвращает ответ со статусом 400 BAD_REQUEST при условии что пользователь с таким username уже существует")
+    void handleUpdateUser_UsernameIsTaken_ReturnValidResponse() {
+        var id = UUID.randomUUID();
+        var locale = Locale.ENGLISH;
+        var errorMessage = "Пользователь с таким username уже существует!";
+
+        doReturn(errorMessage).when(this.messageSource).getMessage(
+                "user.errors.not_create_is_username_exists", new Object[0], locale);
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        when(this.userService.update(any(User.class))).thenThrow(new DuplicateKeyException("ux_users_username"));
+        var responseEntity = this.controller.handleUpdateUser(
+                id, new NewUserPayload("name", "surname", "username", "password"), null,
+                UriComponentsBuilder.fromUriString("http://localhost:8080"), locale);
+
+        assertNotNull(responseEntity);
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
     }
 
     @Test
@@ -199,15 +421,74 @@ class UserRestControllerTest {
 
         doReturn(errorMessage).when(this.messageSource).getMessage(
                 "user.errors.find_by_id_not_exists", new Object[0], locale);
-        when(this.userService.findById(id)).thenReturn(Optional.empty());
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        when(this.userService.update(any(User.class))).thenReturn(false);
         var responseEntity = this.controller.handleUpdateUser(
-                id, new NewUserPayload("name", "surname", "username", "password"),
+                id, new NewUserPayload("name", "surname", "username", "password"), null,
                 UriComponentsBuilder.fromUriString("http://localhost:8080"), locale);
 
         assertNotNull(responseEntity);
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
-        assertEquals(MediaType.APPLICATION_JSON, responseEntity.getHeaders().getContentType());
+        assertNull(responseEntity.getHeaders().getContentType());
+        assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
+        verify(this.userService, times(1)).update(new User(id, "name", "surname", "username", "hash"));
+    }
+
+    @Test
+    @DisplayName("PUT /api/users/{id} Возвращает ответ со статусом 412 PRECONDITION_FAILED, если If-Match не совпадает с текущей версией")
+    void handleUpdateUser_VersionMismatch_ReturnValidResponse() {
+        var id = UUID.randomUUID();
+        var locale = Locale.ENGLISH;
+        var errorMessage = "Пользователь был изменён, получите актуальную версию и повторите запрос";
+        var user = new User(id, "name", "surname", "username", "hash");
+
+        doReturn(errorMessage).when(this.messageSource).getMessage(
+                "user.errors.version_mismatch", new Object[0], locale);
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        when(this.userService.update(user, Set.of(3L))).thenReturn(false);
+        when(this.userService.findVersionById(id)).thenReturn(Optional.of(4L));
+        var responseEntity = this.controller.handleUpdateUser(
+                id, new NewUserPayload("name", "surname", "username", "password"), "\"3\"",
+                UriComponentsBuilder.fromUriString("http://localhost:8080"), locale);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, responseEntity.getStatusCode());
+        assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
+        verify(this.userService, never()).update(user);
+    }
+
+    @Test
+    @DisplayName("DELETE /api/users/{id} с If-Match: * возвращает 412 PRECONDITION_FAILED, если пользователя нет")
+    void handleDeleteUser_IfMatchAnyAndUserMissing_ReturnPreconditionFailed() {
+        var id = UUID.randomUUID();
+        var locale = Locale.ENGLISH;
+        var errorMessage = "Пользователь был изменён, получите актуальную версию и повторите запрос";
+
+        doReturn(errorMessage).when(this.messageSource).getMessage(
+                "user.errors.version_mismatch", new Object[0], locale);
+        when(this.userService.deleteById(id)).thenReturn(false);
+        var responseEntity = this.controller.handleDeleteUser(id, "*", locale);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, responseEntity.getStatusCode());
+        assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
+    }
+
+    @Test
+    @DisplayName("PUT /api/users/{id} с If-Match: * возвращает 412 PRECONDITION_FAILED, если пользователя нет")
+    void handleUpdateUser_IfMatchAnyAndUserMissing_ReturnPreconditionFailed() {
+        var id = UUID.randomUUID();
+        var locale = Locale.ENGLISH;
+        var errorMessage = "Пользователь был изменён, получите актуальную версию и повторите запрос";
+        var user = new User(id, "name", "surname", "username", "hash");
+
+        doReturn(errorMessage).when(this.messageSource).getMessage(
+                "user.errors.version_mismatch", new Object[0], locale);
+        when(this.passwordHasher.hash("password")).thenReturn("hash");
+        when(this.userService.update(user)).thenReturn(false);
+        var responseEntity = this.controller.handleUpdateUser(
+                id, new NewUserPayload("name", "surname", "username", "password"), "*",
+                UriComponentsBuilder.fromUriString("http://localhost:8080"), locale);
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, responseEntity.getStatusCode());
         assertEquals(new ErrorResponse("Ошибка", List.of(errorMessage)), responseEntity.getBody());
-        verify(this.userService, times(1)).findById(id);
     }
-}
\ No newline at end of file
+}
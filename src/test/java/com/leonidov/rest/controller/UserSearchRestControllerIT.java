@@ -0,0 +1,93 @@
+package com.leonidov.rest.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.jdbc.Sql;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@Sql("/sql/tasks_rest_controller/test_data.sql")
+@Transactional
+@SpringBootTest
+@AutoConfigureMockMvc(printOnlyOnFailure = false)
+class UserSearchRestControllerIT {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Test
+    void handleSearchUsers_ReturnRankedPrefixMatches() throws Exception {
+        this.mockMvc.perform(get("/api/users/search").param("q", "USERNAME").param("limit", "1"))
+                .andExpectAll(
+                        status().isOk(),
+                        header().exists("X-Next-Cursor"),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].username").value("username1")
+                );
+
+        this.mockMvc.perform(get("/api/users/search").param("q", "surname2"))
+                .andExpectAll(
+                        status().isOk(),
+                        header().doesNotExist("X-Next-Cursor"),
+                        jsonPath("$.length()").value(1),
+                        jsonPath("$[0].id").value("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9")
+                );
+    }
+
+    @Test
+    void handleSearchUsers_QueryBlank_ReturnBadRequest() throws Exception {
+        this.mockMvc.perform(get("/api/users/search").param("q", " "))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().json("""
+                                {
+                                    "message": "Ошибка",
+                                    "details": [
+                                        "Строка поиска не должна быть пустой"
+                                    ]
+                                }
+                                """)
+                );
+    }
+
+    @Test
+    void handleSearchUsers_UnknownMode_ReturnBadRequest() throws Exception {
+        this.mockMvc.perform(get("/api/users/search").param("q", "user").param("mode", "full-text"))
+                .andExpectAll(
+                        status().isBadRequest(),
+                        content().json("""
+                                {
+                                    "message": "Ошибка",
+                                    "details": [
+                                        "Режим поиска должен быть prefix или fulltext"
+                                    ]
+                                }
+                                """)
+                );
+    }
+
+    @Test
+    void handleSearchUsers_CursorRankOutOfRange_ReturnBadRequest() throws Exception {
+        // base64url от "-1:<uuid>:x" и "3:<uuid>:x"
+        for (String cursor : new String[]{"LTE6MDAwMDAwMDAtMDAwMC0wMDAwLTAwMDAtMDAwMDAwMDAwMDAwOng",
+                "MzowMDAwMDAwMC0wMDAwLTAwMDAtMDAwMC0wMDAwMDAwMDAwMDA6eA"}) {
+            this.mockMvc.perform(get("/api/users/search").param("q", "user").param("after", cursor))
+                    .andExpectAll(
+                            status().isBadRequest(),
+                            content().json("""
+                                    {
+                                        "message": "Ошибка",
+                                        "details": [
+                                            "Некорректный курсор поиска"
+                                        ]
+                                    }
+                                    """)
+                    );
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.leonidov.rest.data;
+
+import com.leonidov.rest.model.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// полнотекстовый индекс вешает триггеры на таблицу, поэтому тест работает с отдельной базой в памяти
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:users_fulltext;DB_CLOSE_DELAY=-1",
+        "users.search.fulltext.enabled=true"
+})
+class JdbcOperationsUserRepositoryFullTextTest {
+
+    @Autowired
+    JdbcOperationsUserRepository repository;
+
+    @Test
+    void searchFullText_findsWordsInsideValues() {
+        User first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Anna Maria", "Ivanova", "user1", "password1");
+        User second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Maria", "Petrova", "user2", "password2");
+        User third = new User(UUID.fromString("3eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Olga", "Sidorova", "user3", "password3");
+
+        this.repository.saveAll(List.of(first, second, third));
+        List<UUID> found = this.repository.searchFullText("maria", 0, 10).stream().map(User::id).toList();
+        List<User> skipped = this.repository.searchFullText("maria", 1, 10);
+        this.repository.update(new User(third.id(), "Olga Maria", "Sidorova", "user3", "password3"));
+        List<UUID> afterUpdate = this.repository.searchFullText("maria", 0, 10).stream().map(User::id).toList();
+
+        assertEquals(2, found.size());
+        assertTrue(found.containsAll(List.of(first.id(), second.id())));
+        assertEquals(1, skipped.size());
+        assertEquals(3, afterUpdate.size());
+        List.of(first, second, third).forEach(user -> this.repository.deleteById(user.id()));
+    }
+}
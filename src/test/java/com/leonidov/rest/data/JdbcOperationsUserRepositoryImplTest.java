@@ -1,12 +1,23 @@
 package com.leonidov.rest.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserField;
+import com.leonidov.rest.model.UserProjection;
+import com.leonidov.rest.model.UserSearchHit;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DuplicateKeyException;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -17,6 +28,9 @@ class JdbcOperationsUserRepositoryImplTest {
     @Autowired
     JdbcOperationsUserRepository repository;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
     @Test
     void findAll_ifDatabaseEmpty() {
         List<User> users = repository.findAll();
@@ -37,6 +51,56 @@ class JdbcOperationsUserRepositoryImplTest {
         this.repository.deleteById(user.id());
     }
 
+    @Test
+    void findAll_recordsLatencyAndRowCount() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        var timer = this.meterRegistry.get("users.repository").tag("operation", "findAll").timer();
+        var rows = this.meterRegistry.get("users.repository.rows").tag("operation", "findAll").summary();
+        long callsBefore = timer.count();
+        double rowsBefore = rows.totalAmount();
+
+        this.repository.save(user);
+        this.repository.findAll();
+
+        assertEquals(callsBefore + 1, timer.count());
+        assertEquals(rowsBefore + 1, rows.totalAmount());
+        this.repository.deleteById(user.id());
+    }
+
+    @Test
+    void findPage() {
+        User first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name2", "surname2", "username2", "password2");
+
+        this.repository.save(second);
+        this.repository.save(first);
+        List<User> firstPage = this.repository.findPage(null, 1);
+        List<User> secondPage = this.repository.findPage(first.id(), 1);
+        List<User> lastPage = this.repository.findPage(second.id(), 1);
+
+        assertEquals(List.of(first), withoutVersion(firstPage));
+        assertEquals(List.of(second), withoutVersion(secondPage));
+        assertEquals(0, lastPage.size());
+        this.repository.deleteById(first.id());
+        this.repository.deleteById(second.id());
+    }
+
+    @Test
+    void streamAll() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+
+        this.repository.save(user);
+        List<User> users = new ArrayList<>();
+        this.repository.streamAll(users::add);
+
+        assertEquals(List.of(user), withoutVersion(users));
+        this.repository.deleteById(user.id());
+    }
+
     @Test
     void findById() {
         User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
@@ -45,7 +109,7 @@ class JdbcOperationsUserRepositoryImplTest {
         this.repository.save(user);
         Optional<User> userFromDb = this.repository.findById(user.id());
 
-        assertEquals(user, userFromDb.get());
+        assertEquals(user, withoutVersion(userFromDb.get()));
         this.repository.deleteById(user.id());
     }
 
@@ -57,7 +121,7 @@ class JdbcOperationsUserRepositoryImplTest {
         this.repository.save(user);
         Optional<User> userFromDb = this.repository.findByUsername(user.username());
 
-        assertEquals(user, userFromDb.get());
+        assertEquals(user, withoutVersion(userFromDb.get()));
         this.repository.deleteById(user.id());
     }
 
@@ -72,10 +136,45 @@ class JdbcOperationsUserRepositoryImplTest {
 
         assertEquals(0, emptyList.size());
         assertEquals(1, userList.size());
-        assertEquals(user, userList.get(0));
+        assertEquals(user, withoutVersion(userList.get(0)));
         this.repository.deleteById(user.id());
     }
 
+    @Test
+    void save_ifUsernameExists_throwsDuplicateKeyException() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User sameUsername = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name2", "surname2", "username1", "password2");
+
+        this.repository.save(user);
+        double errorsBefore = this.meterRegistry.get("users.repository.errors")
+                .tag("operation", "upsert").counter().count();
+
+        assertThrows(DuplicateKeyException.class, () -> this.repository.upsert(sameUsername));
+        assertEquals(errorsBefore + 1, this.meterRegistry.get("users.repository.errors")
+                .tag("operation", "upsert").counter().count());
+        assertEquals(List.of(user), withoutVersion(this.repository.findAll()));
+        this.repository.deleteById(user.id());
+    }
+
+    @Test
+    void saveAll_andFindExistingUsernames() {
+        User first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name2", "surname2", "username2", "password2");
+
+        this.repository.saveAll(List.of(first, second));
+        Set<String> existing = this.repository.findExistingUsernames(List.of("username2", "username3"));
+
+        assertEquals(List.of(first, second), withoutVersion(this.repository.findPage(null, 10)));
+        assertEquals(Set.of("username2"), existing);
+        assertEquals(Set.of(), this.repository.findExistingUsernames(List.of()));
+        this.repository.deleteById(first.id());
+        this.repository.deleteById(second.id());
+    }
+
     @Test
     void update() {
         User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
@@ -85,14 +184,59 @@ class JdbcOperationsUserRepositoryImplTest {
         List<User> oldList = this.repository.findAll();
         User updateUser = new User(user.id(), "name2",
                 "surname2", "username2", "password2");
-        this.repository.update(updateUser);
+        boolean updated = this.repository.update(updateUser);
         List<User> updatedList = this.repository.findAll();
 
-        assertEquals(user, oldList.get(0));
-        assertEquals(updateUser, updatedList.get(0));
+        assertTrue(updated);
+        assertEquals(user, withoutVersion(oldList.get(0)));
+        assertEquals(updateUser, withoutVersion(updatedList.get(0)));
+        assertTrue(updatedList.get(0).version() > oldList.get(0).version());
         this.repository.deleteById(updateUser.id());
     }
 
+    @Test
+    void update_ifUserNotExists() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+
+        assertFalse(this.repository.update(user));
+        assertEquals(0, this.repository.findAll().size());
+    }
+
+    @Test
+    void upsert() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User updateUser = new User(user.id(), "name2",
+                "surname2", "username2", "password2");
+
+        this.repository.upsert(user);
+        Optional<User> inserted = this.repository.findById(user.id());
+        this.repository.upsert(updateUser);
+        List<User> updatedList = this.repository.findAll();
+
+        assertEquals(user, withoutVersion(inserted.get()));
+        assertEquals(List.of(updateUser), withoutVersion(updatedList));
+        assertTrue(updatedList.get(0).version() > inserted.get().version());
+        this.repository.deleteById(user.id());
+    }
+
+    @Test
+    void upsertAll() {
+        User first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name2", "surname2", "username2", "password2");
+        User updatedFirst = new User(first.id(), "name3", "surname3", "username3", "password3");
+
+        this.repository.save(first);
+        this.repository.upsertAll(List.of(updatedFirst, second));
+
+        assertEquals(List.of(updatedFirst, second), withoutVersion(this.repository.findAll()));
+        this.repository.deleteById(first.id());
+        this.repository.deleteById(second.id());
+    }
+
     @Test
     void deleteById() {
         User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
@@ -100,10 +244,173 @@ class JdbcOperationsUserRepositoryImplTest {
 
         this.repository.save(user);
         List<User> oldList = this.repository.findAll();
-        this.repository.deleteById(user.id());
+        boolean deleted = this.repository.deleteById(user.id());
         List<User> updatedList = this.repository.findAll();
 
+        assertTrue(deleted);
+        assertFalse(this.repository.deleteById(user.id()));
         assertEquals(1, oldList.size());
         assertEquals(0, updatedList.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    void update_ifVersionMatches() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User updateUser = new User(user.id(), "name2",
+                "surname2", "username2", "password2");
+
+        this.repository.save(user);
+        long version = this.repository.findVersionById(user.id()).orElseThrow();
+        boolean staleUpdated = this.repository.update(updateUser, List.of(version - 1));
+        boolean updated = this.repository.update(updateUser, List.of(version - 1, version));
+        boolean repeatedUpdated = this.repository.update(updateUser, List.of(version));
+
+        assertFalse(staleUpdated);
+        assertTrue(updated);
+        assertFalse(repeatedUpdated);
+        assertEquals(updateUser, withoutVersion(this.repository.findById(user.id()).orElseThrow()));
+        this.repository.deleteById(user.id());
+    }
+
+    @Test
+    void deleteById_ifVersionMatches() {
+        User user = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+
+        this.repository.save(user);
+        long version = this.repository.findVersionById(user.id()).orElseThrow();
+
+        assertFalse(this.repository.deleteById(user.id(), List.of()));
+        assertFalse(this.repository.deleteById(user.id(), List.of(version + 1)));
+        assertTrue(this.repository.deleteById(user.id(), List.of(version)));
+        assertEquals(Optional.empty(), this.repository.findVersionById(user.id()));
+    }
+
+    @Test
+    void findCollectionVersion_changesOnEveryWrite() {
+        User first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", "surname1", "username1", "password1");
+        User second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name2", "surname2", "username2", "password2");
+
+        String empty = this.repository.findCollectionVersion();
+        this.repository.save(first);
+        String inserted = this.repository.findCollectionVersion();
+        this.repository.update(new User(first.id(), "name3", "surname3", "username3", "password3"));
+        String updated = this.repository.findCollectionVersion();
+        this.repository.save(second);
+        this.repository.deleteById(second.id());
+        String deleted = this.repository.findCollectionVersion();
+
+        assertNotEquals(empty, inserted);
+        assertNotEquals(inserted, updated);
+        // после вставки и удаления второй строки таблица совпадает с прежней, как и версия
+        assertEquals(updated, deleted);
+        this.repository.deleteById(first.id());
+        assertNotEquals(updated, this.repository.findCollectionVersion());
+    }
+
+    private static User withoutVersion(User user) {
+        return new User(user.id(), user.name(), user.surname(), user.username(), user.passwordHash());
+    }
+
+    private static List<User> withoutVersion(List<User> users) {
+        return users.stream().map(JdbcOperationsUserRepositoryImplTest::withoutVersion).toList();
+    }
+
+    @Test
+    void searchByPrefix_ranksByMatchedColumnAndPagesByKeyset() {
+        User byUsername = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Boris", "Petrov", "annaK", "password1");
+        User byName = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Anna", "Ivanova", "user2", "password2");
+        User byNameAndSurname = new User(UUID.fromString("3eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Annet", "Annenkova", "user3", "password3");
+        User bySurname = new User(UUID.fromString("4eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Oleg", "ANNENKOV", "user4", "password4");
+        User other = new User(UUID.fromString("5eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Ivan", "Ivanov", "user5", "password5");
+        List<User> users = List.of(byUsername, byName, byNameAndSurname, bySurname, other);
+
+        this.repository.saveAll(users);
+        List<UserSearchHit> all = this.repository.searchByPrefix("ANN", null, 10);
+        List<UserSearchHit> firstPage = this.repository.searchByPrefix("ann", null, 2);
+        List<UserSearchHit> secondPage = this.repository.searchByPrefix("ann", firstPage.get(1).position(), 2);
+        List<UserSearchHit> escaped = this.repository.searchByPrefix("an%", null, 10);
+
+        assertEquals(List.of(byUsername, byName, byNameAndSurname, bySurname),
+                all.stream().map(hit -> withoutVersion(hit.user())).toList());
+        assertEquals(List.of(0, 1, 1, 2), all.stream().map(hit -> hit.position().rank()).toList());
+        assertEquals(all.subList(0, 2), firstPage);
+        assertEquals(all.subList(2, 4), secondPage);
+        assertEquals(List.of(), escaped);
+        users.forEach(user -> this.repository.deleteById(user.id()));
+    }
+
+    @Test
+    void findAllById_readsChunksAndSkipsMissingIds() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 600; i++)
+            users.add(new User("name" + i, "surname" + i, "username" + i, "password" + i));
+        List<UUID> ids = new ArrayList<>(users.stream().map(User::id).toList());
+        ids.add(UUID.randomUUID());
+
+        this.repository.saveAll(users);
+        List<User> found = this.repository.findAllById(ids);
+
+        assertEquals(Set.copyOf(users), Set.copyOf(withoutVersion(found)));
+        assertEquals(List.of(), this.repository.findAllById(List.of()));
+        users.forEach(user -> this.repository.deleteById(user.id()));
+    }
+
+    @Test
+    void writePage_andWriteNdjson_matchJacksonOutput() throws Exception {
+        User first = new User(UUID.fromString("1eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "name1", null, "username1", "password1");
+        User second = new User(UUID.fromString("2eacaeaa-42b4-490a-a2ef-d9afe8580bc9"),
+                "Имя \"2\"", "surname2", "username2", "password2");
+        List<UserField> fields = List.of(UserField.ID, UserField.USERNAME);
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        this.repository.saveAll(List.of(first, second));
+        try {
+            var firstPage = new ByteArrayOutputStream();
+            UUID cursor;
+            try (JsonGenerator generator = objectMapper.createGenerator(firstPage)) {
+                generator.writeStartArray();
+                cursor = this.repository.writePage(null, 1, null, generator);
+                generator.writeEndArray();
+            }
+            var lastPage = new ByteArrayOutputStream();
+            UUID lastCursor;
+            try (JsonGenerator generator = objectMapper.createGenerator(lastPage)) {
+                generator.writeStartArray();
+                lastCursor = this.repository.writePage(first.id(), 10, fields, generator);
+                generator.writeEndArray();
+            }
+            var ndjson = new ByteArrayOutputStream();
+            try (JsonGenerator generator = objectMapper.createGenerator(ndjson)) {
+                this.repository.writeNdjson(null, generator);
+            }
+            var projectedNdjson = new ByteArrayOutputStream();
+            try (JsonGenerator generator = objectMapper.createGenerator(projectedNdjson)) {
+                this.repository.writeNdjson(fields, generator);
+            }
+
+            assertEquals(objectMapper.writeValueAsString(List.of(first)), firstPage.toString(StandardCharsets.UTF_8));
+            assertEquals(first.id(), cursor);
+            assertEquals(objectMapper.writeValueAsString(List.of(UserProjection.of(second, fields))),
+                    lastPage.toString(StandardCharsets.UTF_8));
+            assertNull(lastCursor);
+            assertEquals(objectMapper.writeValueAsString(first) + "\n" + objectMapper.writeValueAsString(second) + "\n",
+                    ndjson.toString(StandardCharsets.UTF_8));
+            assertEquals(objectMapper.writeValueAsString(UserProjection.of(first, fields)) + "\n"
+                            + objectMapper.writeValueAsString(UserProjection.of(second, fields)) + "\n",
+                    projectedNdjson.toString(StandardCharsets.UTF_8));
+        } finally {
+            this.repository.deleteById(first.id());
+            this.repository.deleteById(second.id());
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.leonidov.rest.data;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// основная база и реплики - отдельные H2 в памяти, каждая знает своё имя
+class ReplicaRoutingDataSourceTest {
+
+    private ToggleableDataSource replica1;
+    private ToggleableDataSource replica2;
+    private ReplicaRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        DataSource primary = node("primary");
+        this.replica1 = new ToggleableDataSource(node("replica1"));
+        this.replica2 = new ToggleableDataSource(node("replica2"));
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.routing = new ReplicaRoutingDataSource(primary, List.of(this.replica1, this.replica2),
+                Duration.ofHours(1), this.meterRegistry);
+        this.jdbcTemplate = new JdbcTemplate(this.routing);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        this.routing.close();
+        for (String name : List.of("primary", "replica1", "replica2"))
+            new JdbcTemplate(node(name)).execute("DROP ALL OBJECTS");
+    }
+
+    private static DataSource node(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:routing_" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        new JdbcTemplate(dataSource).execute("CREATE TABLE IF NOT EXISTS t_node AS SELECT '" + name + "' AS c_name");
+        return dataSource;
+    }
+
+    private String node() {
+        return this.jdbcTemplate.queryForObject("SELECT c_name FROM t_node", String.class);
+    }
+
+    private String replicaReadNode() {
+        return DataSourceRouting.replicaRead(() -> node());
+    }
+
+    @Test
+    void getConnection_ReplicaReadsAlternateReplicas_OtherQueriesUsePrimary() {
+        Set<String> readNodes = new HashSet<>(List.of(replicaReadNode(), replicaReadNode()));
+
+        assertEquals(Set.of("replica1", "replica2"), readNodes);
+        assertEquals("primary", node());
+        assertEquals(2, this.meterRegistry.get("users.datasource.replicas.healthy").gauge().value());
+    }
+
+    @Test
+    void getConnection_InsideScope_StaysOnOneReplica() {
+        try (DataSourceRouting.Scope ignored = DataSourceRouting.openScope(false)) {
+            String first = replicaReadNode();
+
+            assertEquals(first, replicaReadNode());
+            assertEquals(first, replicaReadNode());
+        }
+    }
+
+    @Test
+    void getConnection_PinnedScopeOrTransaction_UsesPrimary() {
+        try (DataSourceRouting.Scope ignored = DataSourceRouting.openScope(true)) {
+            assertEquals("primary", replicaReadNode());
+        }
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(this.routing));
+        assertEquals("primary", transactionTemplate.execute(status -> replicaReadNode()));
+    }
+
+    @Test
+    void getConnection_ReplicaDown_SkippedUntilHealthCheckPasses() {
+        this.replica1.down = true;
+
+        assertEquals("replica2", replicaReadNode());
+        assertEquals("replica2", replicaReadNode());
+        assertEquals(1, this.meterRegistry.get("users.datasource.replicas.healthy").gauge().value());
+
+        this.replica2.down = true;
+        assertEquals("primary", replicaReadNode());
+
+        this.replica1.down = false;
+        this.replica2.down = false;
+        this.routing.checkHealth();
+        assertEquals(Set.of("replica1", "replica2"), new HashSet<>(List.of(replicaReadNode(), replicaReadNode())));
+    }
+
+    private static final class ToggleableDataSource extends DelegatingDataSource {
+
+        volatile boolean down;
+
+        ToggleableDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (this.down)
+                throw new SQLException("Реплика недоступна");
+            return super.getConnection();
+        }
+    }
+}
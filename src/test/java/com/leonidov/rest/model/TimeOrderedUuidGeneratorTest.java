@@ -0,0 +1,61 @@
+package com.leonidov.rest.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeOrderedUuidGeneratorTest {
+
+    UserIdGenerator generator = UserIdGenerator.timeOrdered();
+
+    @Test
+    void nextId_IsVersion7WithCurrentTimestamp() {
+        long before = System.currentTimeMillis();
+        UUID id = this.generator.nextId();
+        long after = System.currentTimeMillis();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        long timestamp = id.getMostSignificantBits() >>> 16;
+        // при переполнении счётчика время в id может немного обгонять часы
+        assertTrue(timestamp >= before && timestamp <= after + 1000, () -> timestamp + " " + before);
+    }
+
+    @Test
+    void nextId_IsStrictlyIncreasingAcrossThreads() throws Exception {
+        int threads = 4;
+        int perThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<UUID>>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    List<UUID> ids = new ArrayList<>(perThread);
+                    for (int i = 0; i < perThread; i++)
+                        ids.add(this.generator.nextId());
+                    return ids;
+                }));
+            }
+
+            List<UUID> all = new ArrayList<>();
+            for (Future<List<UUID>> future : futures) {
+                List<UUID> ids = future.get();
+                for (int i = 1; i < ids.size(); i++)
+                    assertTrue(Long.compareUnsigned(ids.get(i - 1).getMostSignificantBits(),
+                            ids.get(i).getMostSignificantBits()) < 0);
+                all.addAll(ids);
+            }
+            // старшие 64 бита уникальны и без случайной части
+            assertEquals(threads * perThread, all.stream().map(UUID::getMostSignificantBits).distinct().count());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.exception.UserQueryRejectedException;
+import com.leonidov.rest.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class AsyncUserServiceImplTest {
+
+    @Test
+    void findById_RunsOnQueryPool() throws Exception {
+        var userService = mock(UserService.class);
+        var user = new User("name1", "surname1", "username1", "password1");
+        var threadName = new CompletableFuture<String>();
+        when(userService.findById(user.id())).thenAnswer(invocation -> {
+            threadName.complete(Thread.currentThread().getName());
+            return Optional.of(user);
+        });
+        var service = new AsyncUserServiceImpl(userService, new SimpleMeterRegistry(), 1, 1, 1);
+        try {
+            assertEquals(Optional.of(user), service.findById(user.id()).get(10, TimeUnit.SECONDS));
+            assertTrue(threadName.get().startsWith("user-queries-"));
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void findById_PoolAndQueueAreBusy_FailsImmediately() throws Exception {
+        var userService = mock(UserService.class);
+        var release = new CountDownLatch(1);
+        when(userService.findAll()).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return List.of();
+        });
+        var service = new AsyncUserServiceImpl(userService, new SimpleMeterRegistry(), 1, 1, 1);
+        try {
+            var running = service.findAll();
+            var queued = service.findAll();
+
+            var rejected = service.findById(UUID.randomUUID());
+
+            var e = assertThrows(ExecutionException.class, () -> rejected.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(UserQueryRejectedException.class, e.getCause());
+            release.countDown();
+            assertEquals(List.of(), running.get(10, TimeUnit.SECONDS));
+            assertEquals(List.of(), queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void streamAll_ReadsOnlyWhatSubscriberRequestedPlusBuffer_AndStopsOnCancel() throws Exception {
+        var userService = mock(UserService.class);
+        var rows = 10 * AsyncUserServiceImpl.STREAM_BUFFER_SIZE;
+        var read = new AtomicInteger();
+        var streamFinished = new CompletableFuture<Void>();
+        doAnswer(invocation -> {
+            Consumer<User> action = invocation.getArgument(0);
+            try {
+                IntStream.range(0, rows).forEach(i -> {
+                    read.incrementAndGet();
+                    action.accept(new User("name" + i, "surname" + i, "username" + i, "password" + i));
+                });
+            } finally {
+                streamFinished.complete(null);
+            }
+            return null;
+        }).when(userService).streamAll(ArgumentMatchers.<Consumer<User>>any());
+        var service = new AsyncUserServiceImpl(userService, new SimpleMeterRegistry(), 1, 1, 1);
+        try {
+            var received = new LinkedBlockingQueue<User>();
+            var subscription = new CompletableFuture<Flow.Subscription>();
+            service.streamAll().subscribe(new Flow.Subscriber<>() {
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription.complete(s);
+                }
+
+                public void onNext(User user) {
+                    received.add(user);
+                }
+
+                public void onError(Throwable throwable) {
+                }
+
+                public void onComplete() {
+                }
+            });
+
+            subscription.get(10, TimeUnit.SECONDS).request(3);
+            for (int i = 0; i < 3; i++)
+                assertNotNull(received.poll(10, TimeUnit.SECONDS));
+            // читающий поток упирается в буфер публикатора и ждёт запроса
+            while (read.get() <= AsyncUserServiceImpl.STREAM_BUFFER_SIZE)
+                Thread.onSpinWait();
+            Thread.sleep(100);
+            assertTrue(read.get() <= AsyncUserServiceImpl.STREAM_BUFFER_SIZE + 4);
+            assertEquals(0, received.size());
+
+            subscription.get().cancel();
+
+            streamFinished.get(10, TimeUnit.SECONDS);
+            assertTrue(read.get() < rows);
+        } finally {
+            service.destroy();
+        }
+    }
+
+    @Test
+    void streamAll_ExportLimitReached_RejectedUntilRunningExportFinishes() throws Exception {
+        var userService = mock(UserService.class);
+        var release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(userService).streamAll(ArgumentMatchers.<Consumer<User>>any());
+        var service = new AsyncUserServiceImpl(userService, new SimpleMeterRegistry(), 2, 1, 1);
+        try {
+            var completed = new CompletableFuture<Void>();
+            service.streamAll().subscribe(new Flow.Subscriber<>() {
+                public void onSubscribe(Flow.Subscription s) {
+                    s.request(Long.MAX_VALUE);
+                }
+
+                public void onNext(User user) {
+                }
+
+                public void onError(Throwable throwable) {
+                    completed.completeExceptionally(throwable);
+                }
+
+                public void onComplete() {
+                    completed.complete(null);
+                }
+            });
+
+            assertThrows(UserQueryRejectedException.class, service::streamAll);
+            assertEquals(List.of(), service.findAll().get(10, TimeUnit.SECONDS));
+
+            release.countDown();
+            completed.get(10, TimeUnit.SECONDS);
+            // место освобождается сразу после закрытия публикатора, в том же потоке пула
+            var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (true) {
+                try {
+                    assertNotNull(service.streamAll());
+                    break;
+                } catch (UserQueryRejectedException e) {
+                    assertTrue(System.nanoTime() < deadline);
+                    Thread.sleep(10);
+                }
+            }
+        } finally {
+            service.destroy();
+        }
+    }
+}
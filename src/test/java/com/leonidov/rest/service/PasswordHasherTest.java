@@ -0,0 +1,66 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.exception.PasswordHashingRejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class PasswordHasherTest {
+
+    @Test
+    void hashAll_ReturnsHashesInInputOrder() throws Exception {
+        var passwordEncoder = new BCryptPasswordEncoder(4);
+        var passwordHasher = new PasswordHasher(passwordEncoder, new SimpleMeterRegistry(), 2, 4);
+        try {
+            var passwords = List.of("password1", "password2", "password3");
+
+            var hashes = passwordHasher.hashAll(passwords);
+
+            assertEquals(3, hashes.size());
+            for (int i = 0; i < passwords.size(); i++)
+                assertTrue(passwordEncoder.matches(passwords.get(i), hashes.get(i)));
+        } finally {
+            passwordHasher.destroy();
+        }
+    }
+
+    @Test
+    void hash_PoolAndQueueAreBusy_RejectsImmediately() throws Exception {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.encode(anyString())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return "hash:" + invocation.getArgument(0);
+        });
+        var meterRegistry = new SimpleMeterRegistry();
+        var passwordHasher = new PasswordHasher(passwordEncoder, meterRegistry, 1, 1);
+        try {
+            var running = CompletableFuture.supplyAsync(() -> passwordHasher.hash("password1"));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            var queued = CompletableFuture.supplyAsync(() -> passwordHasher.hash("password2"));
+            while (meterRegistry.get("executor.queued").gauge().value() < 1)
+                Thread.onSpinWait();
+
+            assertThrows(PasswordHashingRejectedException.class, () -> passwordHasher.hash("password3"));
+
+            release.countDown();
+            assertEquals("hash:password1", running.get(10, TimeUnit.SECONDS));
+            assertEquals("hash:password2", queued.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            passwordHasher.destroy();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserCacheTest {
+
+    UserCache userCache;
+
+    @BeforeEach
+    void setUp() {
+        var cacheManager = new CaffeineCacheManager(UserCache.USERS_BY_ID, UserCache.USER_IDS_BY_USERNAME);
+        this.userCache = new UserCache(cacheManager);
+    }
+
+    @Test
+    void put_thenGetByIdAndUsername() {
+        User user = new User("n", "s", "u", "p");
+
+        this.userCache.put(user, this.userCache.generation());
+
+        assertEquals(Optional.of(user), this.userCache.getById(user.id()));
+        assertEquals(Optional.of(user), this.userCache.getByUsername(user.username()));
+    }
+
+    @Test
+    void put_ifWrittenDuringRead_isDiscarded() {
+        User user = new User("n", "s", "u", "p");
+
+        long generation = this.userCache.generation();
+        this.userCache.evict(user.id(), user.username());
+        this.userCache.put(user, generation);
+
+        assertTrue(this.userCache.getById(user.id()).isEmpty());
+        assertTrue(this.userCache.getByUsername(user.username()).isEmpty());
+    }
+
+    @Test
+    void evict_removesUserAndStaleUsernameIndex() {
+        User user = new User("n", "s", "old", "p");
+        User renamed = new User(user.id(), "n", "s", "new", "p");
+
+        this.userCache.put(user, this.userCache.generation());
+        this.userCache.evict(renamed.id(), renamed.username());
+        this.userCache.put(renamed, this.userCache.generation());
+
+        assertEquals(Optional.of(renamed), this.userCache.getById(user.id()));
+        assertTrue(this.userCache.getByUsername("old").isEmpty());
+        assertEquals(Optional.of(renamed), this.userCache.getByUsername("new"));
+    }
+
+    @Test
+    void evictById_removesUser() {
+        User user = new User("n", "s", "u", "p");
+
+        this.userCache.put(user, this.userCache.generation());
+        this.userCache.evict(user.id());
+
+        assertTrue(this.userCache.getById(user.id()).isEmpty());
+        assertTrue(this.userCache.getByUsername(user.username()).isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserEventLogTest {
+
+    UserEventLog userEventLog = new UserEventLog(new SimpleMeterRegistry(), 4, 1, Duration.ofHours(1), Duration.ofHours(1));
+
+    @AfterEach
+    void tearDown() {
+        this.userEventLog.destroy();
+    }
+
+    @Test
+    void subscribe_ifLastEventIdInBuffer_replaysMissedEventsThenLiveOnes() throws InterruptedException {
+        User user = new User("n", "s", "u", "p");
+        this.userEventLog.publish(UserEvent.Type.CREATED, user.id(), user);
+        this.userEventLog.publish(UserEvent.Type.UPDATED, user.id(), user);
+        this.userEventLog.publish(UserEvent.Type.DELETED, user.id(), null);
+
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        this.userEventLog.subscribe(1L, subscriber);
+        this.userEventLog.publish(UserEvent.Type.CREATED, UUID.randomUUID(), user);
+
+        assertEquals(List.of(2L, 3L, 4L), subscriber.take(3).stream().map(UserEvent::sequence).toList());
+        assertEquals(4, this.userEventLog.lastSequence());
+    }
+
+    @Test
+    void subscribe_ifLastEventIdEvicted_sendsResetWithLastSequence() throws InterruptedException {
+        for (int i = 0; i < 6; i++)
+            this.userEventLog.publish(UserEvent.Type.DELETED, UUID.randomUUID(), null);
+
+        RecordingSubscriber evicted = new RecordingSubscriber();
+        this.userEventLog.subscribe(1L, evicted);
+        RecordingSubscriber fromFuture = new RecordingSubscriber();
+        this.userEventLog.subscribe(100L, fromFuture);
+
+        assertEquals(new UserEvent(6, UserEvent.Type.RESET, null, null), evicted.take(1).get(0));
+        assertEquals(new UserEvent(6, UserEvent.Type.RESET, null, null), fromFuture.take(1).get(0));
+    }
+
+    @Test
+    void publish_ifSubscriberFallsBehindWholeBuffer_closesSubscription() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onEvent(UserEvent event) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onEvent(event);
+            }
+        };
+        this.userEventLog.subscribe(null, subscriber);
+
+        // первое событие застряло в доставке, ещё четыре заполняют очередь, шестое в неё не влезает
+        for (int i = 0; i < 6; i++)
+            this.userEventLog.publish(UserEvent.Type.DELETED, UUID.randomUUID(), null);
+        release.countDown();
+
+        assertTrue(subscriber.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.events.size() < 6);
+    }
+
+    @Test
+    void publish_ifSubscriberSendHangs_otherSubscribersStillReceiveEvents() throws InterruptedException {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // один поток доставки, и его занимает зависший подписчик
+        UserEventLog stalledLog = new UserEventLog(meterRegistry, 4, 1, Duration.ofHours(1), Duration.ofMillis(200));
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingSubscriber stuck = new RecordingSubscriber() {
+            @Override
+            public void onEvent(UserEvent event) {
+                sending.countDown();
+                // как запись в сокет, которая не реагирует на прерывание
+                boolean interrupted = false;
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            stalledLog.subscribe(null, stuck);
+            stalledLog.publish(UserEvent.Type.DELETED, UUID.randomUUID(), null);
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+            RecordingSubscriber healthy = new RecordingSubscriber();
+            stalledLog.subscribe(null, healthy);
+            stalledLog.publish(UserEvent.Type.DELETED, UUID.randomUUID(), null);
+
+            assertEquals(2, healthy.take(1).get(0).sequence());
+            assertEquals(1, meterRegistry.get("users.events.stalls").counter().count());
+            release.countDown();
+            assertTrue(stuck.closed.await(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            stalledLog.destroy();
+        }
+    }
+
+    @Test
+    void heartbeat_reachesIdleSubscriber() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        this.userEventLog.subscribe(null, subscriber);
+
+        this.userEventLog.heartbeat();
+
+        assertTrue(subscriber.heartbeats.await(5, TimeUnit.SECONDS));
+    }
+
+    static class RecordingSubscriber implements UserEventLog.UserEventSubscriber {
+
+        final BlockingQueue<UserEvent> events = new LinkedBlockingQueue<>();
+        final CountDownLatch heartbeats = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void onEvent(UserEvent event) {
+            this.events.add(event);
+        }
+
+        @Override
+        public void onHeartbeat() {
+            this.heartbeats.countDown();
+        }
+
+        @Override
+        public void onClose() {
+            this.closed.countDown();
+        }
+
+        List<UserEvent> take(int count) throws InterruptedException {
+            List<UserEvent> taken = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                UserEvent event = this.events.poll(5, TimeUnit.SECONDS);
+                assertNotNull(event);
+                taken.add(event);
+            }
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepository;
+import com.leonidov.rest.model.NewUserPayload;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserEvent;
+import com.leonidov.rest.model.UserIdGenerator;
+import com.leonidov.rest.model.UserImportResult;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.MessageSource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserImportServiceImplTest {
+
+    @Mock
+    JdbcOperationsUserRepository repository;
+
+    @Mock
+    MessageSource messageSource;
+
+    @Mock
+    PasswordHasher passwordHasher;
+
+    @Mock
+    UserEventLog userEventLog;
+
+    UserImportServiceImpl userImportService;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(this.passwordHasher.hashAll(anyList())).thenAnswer(invocation ->
+                invocation.<List<String>>getArgument(0).stream().map(password -> "hash:" + password).toList());
+        this.userImportService = new UserImportServiceImpl(this.repository,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                this.messageSource, TransactionOperations.withoutTransaction(), this.passwordHasher, this.userEventLog,
+                UserIdGenerator.timeOrdered(), 2);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void importUsers_insertsValidUsersInChunks() {
+        var payloads = List.of(
+                new NewUserPayload("n1", "s1", "u1", "password1"),
+                new NewUserPayload("n2", "s2", "u2", "password2"),
+                new NewUserPayload("n3", "s3", "u3", "password3"));
+
+        when(this.repository.findExistingUsernames(anyCollection())).thenReturn(Set.of());
+        List<UserImportResult> results = this.userImportService.importUsers(payloads.iterator());
+
+        ArgumentCaptor<List<User>> chunks = ArgumentCaptor.forClass(List.class);
+        verify(this.repository, times(2)).findExistingUsernames(anyCollection());
+        verify(this.repository, times(2)).saveAll(chunks.capture());
+        assertEquals(List.of(2, 1), chunks.getAllValues().stream().map(List::size).toList());
+        assertEquals(List.of("hash:password1", "hash:password2", "hash:password3"),
+                chunks.getAllValues().stream().flatMap(List::stream).map(User::passwordHash).toList());
+        assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).index());
+            assertEquals(UserImportResult.Status.CREATED, results.get(i).status());
+            assertNotNull(results.get(i).id());
+        }
+    }
+
+    @Test
+    void importUsers_reportsInvalidAndConflictingUsers() {
+        var payloads = List.of(
+                new NewUserPayload("n1", "s1", "u1", "password1"),
+                new NewUserPayload("n2", "s2", "u1", "password2"),
+                new NewUserPayload("n3", "s3", "", "password3"),
+                new NewUserPayload("n4", "s4", "taken", "password4"));
+
+        when(this.repository.findExistingUsernames(anyCollection()))
+                .thenReturn(Set.of())
+                .thenReturn(Set.of("taken"));
+        doReturn("exists").when(this.messageSource)
+                .getMessage(eq("user.errors.not_create_is_username_exists"), any(), any());
+        List<UserImportResult> results = this.userImportService.importUsers(payloads.iterator());
+
+        assertEquals(List.of(UserImportResult.Status.CREATED, UserImportResult.Status.CONFLICT,
+                        UserImportResult.Status.INVALID, UserImportResult.Status.CONFLICT),
+                results.stream().map(UserImportResult::status).toList());
+        assertEquals(List.of("exists"), results.get(1).details());
+        assertEquals(List.of("Поле username не должно быть пустым"), results.get(2).details());
+        assertEquals(List.of("exists"), results.get(3).details());
+        verify(this.repository, times(1)).saveAll(argThat(users ->
+                users.size() == 1 && users.get(0).username().equals("u1")));
+        verify(this.userEventLog, times(1)).publish(eq(UserEvent.Type.CREATED), eq(results.get(0).id()),
+                argThat(user -> user.username().equals("u1")));
+    }
+
+    @Test
+    void importUsers_ifUsernameTakenConcurrently_retriesChunk() {
+        var payloads = List.of(new NewUserPayload("n1", "s1", "u1", "password1"));
+
+        when(this.repository.findExistingUsernames(anyCollection()))
+                .thenReturn(Set.of())
+                .thenReturn(Set.of("u1"));
+        doThrow(new DuplicateKeyException("ux_users_username")).doNothing()
+                .when(this.repository).saveAll(anyList());
+        doReturn("exists").when(this.messageSource)
+                .getMessage(eq("user.errors.not_create_is_username_exists"), any(), any());
+        List<UserImportResult> results = this.userImportService.importUsers(payloads.iterator());
+
+        assertEquals(1, results.size());
+        assertEquals(UserImportResult.Status.CONFLICT, results.get(0).status());
+        verify(this.repository, times(2)).findExistingUsernames(anyCollection());
+        verifyNoInteractions(this.userEventLog);
+    }
+
+    @Test
+    void importUsers_ifChunkKeepsColliding_importsOneByOneAndReportsConflicts() {
+        var payloads = List.of(
+                new NewUserPayload("n1", "s1", "u1", "password1"),
+                new NewUserPayload("n2", "s2", "u2", "password2"));
+
+        // проверка не видит занятых username, а вставка пачки каждый раз падает на u2
+        when(this.repository.findExistingUsernames(anyCollection())).thenReturn(Set.of());
+        doAnswer(invocation -> {
+            if (invocation.<List<User>>getArgument(0).stream().anyMatch(user -> user.username().equals("u2")))
+                throw new DuplicateKeyException("ux_users_username");
+            return null;
+        }).when(this.repository).saveAll(anyList());
+        doReturn("exists").when(this.messageSource)
+                .getMessage(eq("user.errors.not_create_is_username_exists"), any(), any());
+        List<UserImportResult> results = this.userImportService.importUsers(payloads.iterator());
+
+        assertEquals(List.of(UserImportResult.Status.CREATED, UserImportResult.Status.CONFLICT),
+                results.stream().map(UserImportResult::status).toList());
+        assertEquals(List.of("exists"), results.get(1).details());
+        verify(this.repository, times(UserImportServiceImpl.MAX_CHUNK_ATTEMPTS)).saveAll(argThat(users -> users.size() == 2));
+        verify(this.userEventLog, times(1)).publish(eq(UserEvent.Type.CREATED), eq(results.get(0).id()),
+                argThat(user -> user.username().equals("u1")));
+        verifyNoMoreInteractions(this.userEventLog);
+    }
+
+    @Test
+    void importUsers_ifStreamIsBroken_keepsAcceptedUsers() {
+        var payloads = new Iterator<NewUserPayload>() {
+            int read;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public NewUserPayload next() {
+                if (read++ == 0)
+                    return new NewUserPayload("n1", "s1", "u1", "password1");
+                throw new NoSuchElementException("Unexpected end-of-input\n at [Source: line 2]");
+            }
+        };
+
+        when(this.repository.findExistingUsernames(anyCollection())).thenReturn(Set.of());
+        List<UserImportResult> results = this.userImportService.importUsers(payloads);
+
+        assertEquals(2, results.size());
+        assertEquals(UserImportResult.Status.CREATED, results.get(0).status());
+        assertEquals(UserImportResult.Status.INVALID, results.get(1).status());
+        assertEquals(List.of("Unexpected end-of-input"), results.get(1).details());
+        verify(this.repository, times(1)).saveAll(anyList());
+    }
+}
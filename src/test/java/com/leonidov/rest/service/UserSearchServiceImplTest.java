@@ -0,0 +1,83 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepository;
+import com.leonidov.rest.exception.InvalidSearchRequestException;
+import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserSearchHit;
+import com.leonidov.rest.model.UserSearchPage;
+import com.leonidov.rest.model.UserSearchPosition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserSearchServiceImplTest {
+
+    @Mock
+    JdbcOperationsUserRepository repository;
+
+    @Test
+    void searchByPrefix_ifNextPageExists_returnsCursorOfLastHit() {
+        var service = new UserSearchServiceImpl(this.repository, false);
+        User first = new User("Анна", "s", "u1", "p");
+        User second = new User("Анна", "s", "u2", "p");
+        var position = new UserSearchPosition(1, "анна", first.id());
+        var hits = List.of(new UserSearchHit(first, position),
+                new UserSearchHit(second, new UserSearchPosition(1, "анна", second.id())));
+
+        when(this.repository.searchByPrefix("ан", null, 2)).thenReturn(hits);
+        UserSearchPage page = service.searchByPrefix(" ан ", null, 1);
+        when(this.repository.searchByPrefix("ан", position, 2)).thenReturn(hits.subList(1, 2));
+        UserSearchPage next = service.searchByPrefix("ан", page.nextCursor(), 1);
+
+        assertEquals(List.of(first), page.users());
+        assertNotNull(page.nextCursor());
+        assertEquals(List.of(second), next.users());
+        assertNull(next.nextCursor());
+    }
+
+    @Test
+    void searchByPrefix_ifQueryBlankOrCursorInvalid_throwsException() {
+        var service = new UserSearchServiceImpl(this.repository, false);
+
+        assertThrows(InvalidSearchRequestException.class, () -> service.searchByPrefix(" ", null, 10));
+        assertThrows(InvalidSearchRequestException.class, () -> service.searchByPrefix("ан", "не курсор", 10));
+        for (String rank : new String[]{"-1", String.valueOf(UserSearchPosition.RANKS)}) {
+            String cursor = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    (rank + ":00000000-0000-0000-0000-000000000000:x").getBytes(StandardCharsets.UTF_8));
+            assertThrows(InvalidSearchRequestException.class, () -> service.searchByPrefix("ан", cursor, 10));
+        }
+        verify(this.repository, never()).searchByPrefix(any(), any(), anyInt());
+    }
+
+    @Test
+    void searchFullText_ifDisabled_throwsException() {
+        var service = new UserSearchServiceImpl(this.repository, false);
+
+        var exception = assertThrows(InvalidSearchRequestException.class,
+                () -> service.searchFullText("мария", null, 10));
+        assertEquals("user.errors.search_fulltext_disabled", exception.getMessageKey());
+    }
+
+    @Test
+    void searchFullText_pagesByOffset() {
+        var service = new UserSearchServiceImpl(this.repository, true);
+        User first = new User("Мария", "s", "u1", "p");
+        User second = new User("Мария", "s", "u2", "p");
+
+        when(this.repository.searchFullText("мария", 10, 2)).thenReturn(List.of(first, second));
+        UserSearchPage page = service.searchFullText("мария", "10", 1);
+
+        assertEquals(List.of(first), page.users());
+        assertEquals("11", page.nextCursor());
+    }
+}
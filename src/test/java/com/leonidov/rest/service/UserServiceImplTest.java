@@ -1,18 +1,31 @@
 package com.leonidov.rest.service;
 
+import com.leonidov.rest.data.DataSourceRouting;
 import com.leonidov.rest.data.JdbcOperationsUserRepository;
 import com.leonidov.rest.model.User;
+import com.leonidov.rest.model.UserEvent;
+import com.leonidov.rest.model.UserPage;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.ObjectProvider;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -23,6 +36,15 @@ class UserServiceImplTest {
     @Mock
     JdbcOperationsUserRepository repository;
 
+    @Mock
+    UserCache userCache;
+
+    @Mock
+    ObjectProvider<UserWriteBatcher> userWriteBatcher;
+
+    @Mock
+    UserEventLog userEventLog;
+
     @InjectMocks
     UserServiceImpl userService;
 
@@ -34,6 +56,39 @@ class UserServiceImplTest {
         assertEquals(0, users.size());
     }
 
+    @Test
+    void findPage_ifLastPage() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.repository.findPage(null, 3)).thenReturn(List.of(user));
+        UserPage<User> page = this.userService.findPage(null, 2);
+
+        assertEquals(List.of(user), page.users());
+        assertNull(page.nextCursor());
+    }
+
+    @Test
+    void findPage_ifNextPageExists() {
+        User first = new User("n1", "s1", "u1", "p1");
+        User second = new User("n2", "s2", "u2", "p2");
+        UUID after = UUID.randomUUID();
+
+        when(this.repository.findPage(after, 2)).thenReturn(List.of(first, second));
+        UserPage<User> page = this.userService.findPage(after, 1);
+
+        assertEquals(List.of(first), page.users());
+        assertEquals(first.id(), page.nextCursor());
+    }
+
+    @Test
+    void streamAll() {
+        Consumer<User> action = user -> {};
+
+        this.userService.streamAll(action);
+
+        verify(this.repository, times(1)).streamAll(action);
+    }
+
     @Test
     void findById() {
         User user = new User("n", "s", "u", "p");
@@ -44,6 +99,157 @@ class UserServiceImplTest {
         assertEquals(user, request.get());
     }
 
+    @Test
+    void findById_ifCached() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.userCache.getById(user.id())).thenReturn(Optional.of(user));
+        Optional<User> request = this.userService.findById(user.id());
+
+        assertEquals(user, request.get());
+        verifyNoInteractions(this.repository);
+    }
+
+    @Test
+    void findById_ifNotCached_putsLoadedUser() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.userCache.generation()).thenReturn(7L);
+        when(this.repository.findById(user.id())).thenReturn(Optional.of(user));
+        this.userService.findById(user.id());
+
+        verify(this.userCache, times(1)).put(user, 7L);
+    }
+
+    @Test
+    void findById_ifNotCached_readsFromPrimary() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.repository.findById(user.id())).thenAnswer(invocation ->
+                DataSourceRouting.isPinnedToPrimary() ? Optional.of(user) : Optional.empty());
+
+        assertEquals(Optional.of(user), this.userService.findById(user.id()));
+        assertFalse(DataSourceRouting.isPinnedToPrimary());
+    }
+
+    @Test
+    void findAllById_readsOnlyCacheMissesInOneQuery() {
+        User cached = new User("n1", "s1", "u1", "p");
+        User loaded = new User("n2", "s2", "u2", "p");
+        UUID missing = UUID.randomUUID();
+
+        when(this.userCache.getById(cached.id())).thenReturn(Optional.of(cached));
+        when(this.userCache.generation()).thenReturn(3L);
+        when(this.repository.findAllById(Set.of(loaded.id(), missing))).thenReturn(List.of(loaded));
+        Map<UUID, User> users = this.userService.findAllById(
+                Arrays.asList(cached.id(), loaded.id(), missing, loaded.id(), null));
+
+        assertEquals(Map.of(cached.id(), cached, loaded.id(), loaded), users);
+        verify(this.repository, times(1)).findAllById(any());
+        verify(this.userCache, times(1)).put(loaded, 3L);
+    }
+
+    @Test
+    void findById_concurrentMisses_shareOneQueryPerKey() throws Exception {
+        User first = new User("n1", "s1", "u1", "p");
+        User second = new User("n2", "s2", "u2", "p");
+        CountDownLatch release = new CountDownLatch(1);
+        for (User user : List.of(first, second)) {
+            when(this.repository.findById(user.id())).thenAnswer(invocation -> {
+                release.await(10, TimeUnit.SECONDS);
+                return Optional.of(user);
+            });
+        }
+
+        Queue<Optional<User>> results = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UUID id = (i % 2 == 0 ? first : second).id();
+            threads.add(new Thread(() -> results.add(this.userService.findById(id))));
+        }
+        threads.forEach(Thread::start);
+        awaitAllParked(threads);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join(10_000);
+
+        assertEquals(100, results.size());
+        assertEquals(50, results.stream().filter(Optional.of(first)::equals).count());
+        assertEquals(50, results.stream().filter(Optional.of(second)::equals).count());
+        verify(this.repository, times(1)).findById(first.id());
+        verify(this.repository, times(1)).findById(second.id());
+    }
+
+    @Test
+    void findByUsername_concurrentMisses_shareOneQuery() throws Exception {
+        User user = new User("n", "s", "u", "p");
+        CountDownLatch release = new CountDownLatch(1);
+        when(this.repository.findByUsername("u")).thenAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return Optional.of(user);
+        });
+
+        Queue<Optional<User>> results = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            threads.add(new Thread(() -> results.add(this.userService.findByUsername("u"))));
+        threads.forEach(Thread::start);
+        awaitAllParked(threads);
+        release.countDown();
+        for (Thread thread : threads)
+            thread.join(10_000);
+
+        assertEquals(Collections.nCopies(50, Optional.of(user)), List.copyOf(results));
+        verify(this.repository, times(1)).findByUsername("u");
+    }
+
+    @Test
+    void findById_afterWrite_doesNotJoinEarlierQuery() throws Exception {
+        User before = new User("n", "s", "u", "p");
+        User after = new User(before.id(), "n2", "s2", "u", "p");
+        CountDownLatch release = new CountDownLatch(1);
+        when(this.userCache.generation()).thenReturn(0L, 1L);
+        when(this.repository.findById(before.id()))
+                .thenAnswer(invocation -> {
+                    release.await(10, TimeUnit.SECONDS);
+                    return Optional.of(before);
+                })
+                .thenReturn(Optional.of(after));
+
+        Queue<Optional<User>> results = new ConcurrentLinkedQueue<>();
+        Thread earlier = new Thread(() -> results.add(this.userService.findById(before.id())));
+        earlier.start();
+        awaitAllParked(List.of(earlier));
+        Optional<User> request = this.userService.findById(before.id());
+        release.countDown();
+        earlier.join(10_000);
+
+        assertEquals(after, request.get());
+        assertEquals(List.of(Optional.of(before)), List.copyOf(results));
+        verify(this.repository, times(2)).findById(before.id());
+    }
+
+    // все потоки либо выполняют запрос (ждут release), либо ждут чужой CompletableFuture
+    private static void awaitAllParked(List<Thread> threads) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!threads.stream().allMatch(thread -> thread.getState() == Thread.State.WAITING
+                || thread.getState() == Thread.State.TIMED_WAITING)) {
+            assertTrue(System.nanoTime() < deadline, "потоки не дошли до ожидания");
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    void findByUsername_ifCached() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.userCache.getByUsername(user.username())).thenReturn(Optional.of(user));
+        Optional<User> request = this.userService.findByUsername(user.username());
+
+        assertEquals(user, request.get());
+        verifyNoInteractions(this.repository);
+    }
+
     @Test
     void findByUsername() {
         User user = new User("n", "s", "u", "p");
@@ -55,33 +261,81 @@ class UserServiceImplTest {
     }
 
     @Test
-    void saveOrUpdate_ifUserExists() {
+    void saveOrUpdate() {
         User user = new User("n", "s", "u", "p");
 
-        when(this.repository.findById(user.id())).thenReturn(Optional.of(user));
         this.userService.saveOrUpdate(user);
 
-        verify(this.repository, times(1)).update(user);
-        verify(this.repository, times(0)).save(user);
+        verify(this.repository, times(1)).upsert(user);
+        verify(this.repository, never()).findById(user.id());
+        verify(this.userCache, times(1)).evict(user.id(), user.username());
+        verify(this.userEventLog, times(1)).publish(UserEvent.Type.CREATED, user.id(), user);
     }
 
     @Test
-    void saveOrUpdate_ifUserNotExists() {
+    void saveOrUpdate_ifBatchingEnabled() {
         User user = new User("n", "s", "u", "p");
+        UserWriteBatcher batcher = mock(UserWriteBatcher.class);
+        when(this.userWriteBatcher.getIfAvailable()).thenReturn(batcher);
+        // как настоящий батчер: afterCommit выполняется после коммита пачки
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(1).run();
+            return null;
+        }).when(batcher).upsert(eq(user), any());
+        UserServiceImpl service = new UserServiceImpl(this.repository, this.userCache, this.userWriteBatcher,
+                this.userEventLog);
 
-        when(this.repository.findById(user.id())).thenReturn(Optional.empty());
-        this.userService.saveOrUpdate(user);
+        service.saveOrUpdate(user);
+
+        verify(batcher, times(1)).upsert(eq(user), any());
+        verify(this.repository, never()).upsert(user);
+        verify(this.userCache, times(1)).evict(user.id(), user.username());
+        verify(this.userEventLog, times(1)).publish(UserEvent.Type.CREATED, user.id(), user);
+    }
+
+    @Test
+    void update_ifUserExists() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.repository.update(user)).thenReturn(true);
 
-        verify(this.repository, times(0)).update(user);
-        verify(this.repository, times(1)).save(user);
+        assertTrue(this.userService.update(user));
+        verify(this.repository, never()).findById(user.id());
+        verify(this.userCache, times(1)).evict(user.id(), user.username());
+        verify(this.userEventLog, times(1)).publish(UserEvent.Type.UPDATED, user.id(), user);
+    }
+
+    @Test
+    void update_ifUserNotExists() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.repository.update(user)).thenReturn(false);
+
+        assertFalse(this.userService.update(user));
+        verify(this.repository, never()).save(user);
+        verifyNoInteractions(this.userEventLog);
     }
 
     @Test
     void deleteById() {
         UUID id = UUID.randomUUID();
 
-        this.userService.deleteById(id);
+        when(this.repository.deleteById(id)).thenReturn(true);
 
+        assertTrue(this.userService.deleteById(id));
         verify(this.repository, times(1)).deleteById(id);
+        verify(this.userCache, times(1)).evict(id);
+        verify(this.userEventLog, times(1)).publish(UserEvent.Type.DELETED, id, null);
+    }
+
+    @Test
+    void update_ifVersionMismatch_evictsCachedUser() {
+        User user = new User("n", "s", "u", "p");
+
+        when(this.repository.update(user, Set.of(1L))).thenReturn(false);
+
+        assertFalse(this.userService.update(user, Set.of(1L)));
+        verify(this.repository, never()).update(user);
+        verify(this.userCache, times(1)).evict(user.id(), user.username());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+package com.leonidov.rest.service;
+
+import com.leonidov.rest.data.JdbcOperationsUserRepository;
+import com.leonidov.rest.model.User;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class UserWriteBatcherTest {
+
+    // у общего пула может быть один поток, а каждый вызывающий блокируется до сброса пачки
+    private final ExecutorService callers = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    void shutdownCallers() {
+        this.callers.shutdownNow();
+    }
+
+    @Test
+    void upsert_ConcurrentCallers_FlushedAsOneBatch() throws Exception {
+        var repository = mock(JdbcOperationsUserRepository.class);
+        var meterRegistry = new SimpleMeterRegistry();
+        var batcher = new UserWriteBatcher(repository, TransactionOperations.withoutTransaction(),
+                meterRegistry, 4, Duration.ofSeconds(10), 16, Duration.ofSeconds(10));
+        try {
+            var users = IntStream.range(0, 4)
+                    .mapToObj(i -> new User("name" + i, "surname" + i, "username" + i, "password" + i))
+                    .toList();
+
+            var writes = users.stream()
+                    .map(user -> CompletableFuture.runAsync(() -> batcher.upsert(user, () -> { }), this.callers))
+                    .toList();
+            for (var write : writes)
+                write.get(10, TimeUnit.SECONDS);
+
+            verify(repository, times(1)).upsertAll(argThat(batch -> Set.copyOf(batch).equals(Set.copyOf(users))));
+            verify(repository, never()).upsert(any());
+            assertEquals(4, meterRegistry.get("users.write-batch.size").summary().totalAmount());
+        } finally {
+            batcher.destroy();
+        }
+    }
+
+    @Test
+    void upsert_BatchFails_EachCallerGetsOwnResult() throws Exception {
+        var repository = mock(JdbcOperationsUserRepository.class);
+        var good = new User("name1", "surname1", "username1", "password1");
+        var duplicate = new User("name2", "surname2", "username1", "password2");
+        doThrow(new DuplicateKeyException("username1")).when(repository).upsertAll(anyList());
+        doThrow(new DuplicateKeyException("username1")).when(repository).upsert(duplicate);
+        var batcher = new UserWriteBatcher(repository, TransactionOperations.withoutTransaction(),
+                new SimpleMeterRegistry(), 2, Duration.ofSeconds(10), 16, Duration.ofSeconds(10));
+        try {
+            var goodWrite = CompletableFuture.runAsync(() -> batcher.upsert(good, () -> { }), this.callers);
+            var duplicateWrite = CompletableFuture.runAsync(() -> batcher.upsert(duplicate, () -> { }), this.callers);
+
+            goodWrite.get(10, TimeUnit.SECONDS);
+            var e = assertThrows(ExecutionException.class, () -> duplicateWrite.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(DuplicateKeyException.class, e.getCause());
+            verify(repository, times(1)).upsertAll(anyList());
+            verify(repository, times(1)).upsert(good);
+        } finally {
+            batcher.destroy();
+        }
+    }
+
+    @Test
+    void upsert_AfterDestroy_WritesDirectly() throws Exception {
+        var repository = mock(JdbcOperationsUserRepository.class);
+        var batcher = new UserWriteBatcher(repository, TransactionOperations.withoutTransaction(),
+                new SimpleMeterRegistry(), 4, Duration.ofMillis(1), 16, Duration.ofSeconds(10));
+        var user = new User("name1", "surname1", "username1", "password1");
+
+        batcher.destroy();
+        batcher.upsert(user, () -> { });
+
+        verify(repository, times(1)).upsert(user);
+        verify(repository, never()).upsertAll(List.of(user));
+    }
+
+    @Test
+    void upsert_BatchThrowsError_CallersFailAndFlusherSurvives() throws Exception {
+        var repository = mock(JdbcOperationsUserRepository.class);
+        var first = new User("name1", "surname1", "username1", "password1");
+        var second = new User("name2", "surname2", "username2", "password2");
+        doThrow(new AssertionError("upsertAll")).doNothing().when(repository).upsertAll(anyList());
+        var batcher = new UserWriteBatcher(repository, TransactionOperations.withoutTransaction(),
+                new SimpleMeterRegistry(), 4, Duration.ZERO, 16, Duration.ofSeconds(10));
+        try {
+            var failedWrite = CompletableFuture.runAsync(() -> batcher.upsert(first, () -> { }), this.callers);
+            var e = assertThrows(ExecutionException.class, () -> failedWrite.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(AssertionError.class, e.getCause());
+
+            CompletableFuture.runAsync(() -> batcher.upsert(second, () -> { }), this.callers).get(10, TimeUnit.SECONDS);
+            verify(repository, times(1)).upsertAll(List.of(second));
+        } finally {
+            batcher.destroy();
+        }
+    }
+
+    @Test
+    void upsert_BatchHangs_CallerTimesOut() throws Exception {
+        var repository = mock(JdbcOperationsUserRepository.class);
+        var released = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            released.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(repository).upsertAll(anyList());
+        var batcher = new UserWriteBatcher(repository, TransactionOperations.withoutTransaction(),
+                new SimpleMeterRegistry(), 4, Duration.ZERO, 16, Duration.ofMillis(200));
+        try {
+            var user = new User("name1", "surname1", "username1", "password1");
+            var write = CompletableFuture.runAsync(() -> batcher.upsert(user, () -> { }), this.callers);
+
+            var e = assertThrows(ExecutionException.class, () -> write.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(QueryTimeoutException.class, e.getCause());
+        } finally {
+            released.countDown();
+            batcher.destroy();
+        }
+    }
+
+    @Test
+    void upsert_BatchCommittedAfterCallerTimedOut_RunsAfterCommit() throws Exception {
+        var repository = mock(JdbcOperationsUserRepository.class);
+        var released = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            released.await(10, TimeUnit.SECONDS);
+            return null;
+        }).when(repository).upsertAll(anyList());
+        var batcher = new UserWriteBatcher(repository, TransactionOperations.withoutTransaction(),
+                new SimpleMeterRegistry(), 4, Duration.ZERO, 16, Duration.ofMillis(200));
+        try {
+            var user = new User("name1", "surname1", "username1", "password1");
+            var afterCommit = new CountDownLatch(1);
+            var write = CompletableFuture.runAsync(() -> batcher.upsert(user, afterCommit::countDown), this.callers);
+            var e = assertThrows(ExecutionException.class, () -> write.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(QueryTimeoutException.class, e.getCause());
+            assertEquals(1, afterCommit.getCount());
+
+            // пачка коммитится уже после таймаута вызывающего
+            released.countDown();
+
+            assertTrue(afterCommit.await(10, TimeUnit.SECONDS));
+            verify(repository, times(1)).upsertAll(List.of(user));
+        } finally {
+            released.countDown();
+            batcher.destroy();
+        }
+    }
+}
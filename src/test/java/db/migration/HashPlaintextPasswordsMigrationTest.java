@@ -0,0 +1,56 @@
+package db.migration;
+
+import org.flywaydb.core.Flyway;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashPlaintextPasswordsMigrationTest {
+
+    @Test
+    void migrate_HashesAllPlaintextPasswordsAcrossBatchesWithConfiguredStrength() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:hash_plaintext_passwords;DB_CLOSE_DELAY=-1");
+        dataSource.setUser("sa");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        try {
+            flyway(dataSource, "1.2").migrate();
+            int rows = V1_3__Hash_plaintext_passwords.BATCH_SIZE + 1;
+            jdbcTemplate.batchUpdate("INSERT INTO t_users(id, c_name, c_surname, c_username, c_password) VALUES (?, ?, ?, ?, ?)",
+                    IntStream.range(0, rows)
+                            .mapToObj(i -> new Object[]{UUID.randomUUID(), "name", "surname", "user" + i, "password" + i})
+                            .toList());
+
+            flyway(dataSource, "1.3").migrate();
+
+            List<Map<String, Object>> users = jdbcTemplate.queryForList("SELECT c_username, c_password FROM t_users");
+            BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder(4);
+            assertEquals(rows, users.size());
+            for (Map<String, Object> user : users) {
+                String hash = (String) user.get("C_PASSWORD");
+                assertTrue(hash.startsWith("$2a$04$"), hash);
+                assertTrue(passwordEncoder.matches(
+                        "password" + ((String) user.get("C_USERNAME")).substring("user".length()), hash));
+            }
+        } finally {
+            jdbcTemplate.execute("DROP ALL OBJECTS");
+        }
+    }
+
+    private static Flyway flyway(JdbcDataSource dataSource, String target) {
+        return Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("bcrypt-strength", "4"))
+                .target(target)
+                .load();
+    }
+}
@@ -0,0 +1 @@
+DELETE FROM t_users;